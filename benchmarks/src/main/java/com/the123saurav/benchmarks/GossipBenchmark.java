@@ -0,0 +1,51 @@
+package com.the123saurav.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.the123saurav.common.Message;
+import com.the123saurav.gossip.GossipHandler;
+import com.the123saurav.gossip.SpanningTreeOverlay;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Inbound gossip batches through dedupe. The node is alone in its overlay so new values are
+// recorded without fanning out, which keeps retries and timers out of the measurement.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class GossipBenchmark {
+
+    @Param({"1", "64", "512"})
+    public int batch;
+
+    private final GossipHandler node = new GossipHandler(new SpanningTreeOverlay(4), 5, 512, 20, 4096, 0);
+    private final Sink sink = new Sink();
+    private final AtomicLong next = new AtomicLong(1L << 20);
+    private Message seen;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        sink.to(bh);
+        node.setOutput(sink);
+        node.handleMessage(Messages.init("n0", "n0"));
+        node.handleMessage(Messages.gossip("n1", "n0", 1, 0, batch));
+        seen = Messages.gossip("n1", "n0", 2, 0, batch);
+        seen.body();
+    }
+
+    // Every value already known: the common case once gossip has converged.
+    @Benchmark
+    public void duplicates() {
+        node.handleMessage(seen);
+    }
+
+    // Every value new. Includes building the batch, which the duplicate case shows the cost of.
+    @Benchmark
+    public void fresh() {
+        node.handleMessage(Messages.gossip("n1", "n0", 3, next.getAndAdd(batch), batch));
+    }
+}
@@ -0,0 +1,48 @@
+package com.the123saurav.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.the123saurav.common.Message;
+import com.the123saurav.guid.GuidHandler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// ID generation with several threads hammering one node, as when maelstrom runs many clients.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class GuidBenchmark {
+
+    private final GuidHandler node = new GuidHandler();
+    private final Sink sink = new Sink();
+    private Message request;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        sink.to(bh);
+        node.setOutput(sink);
+        node.handleMessage(Messages.init("n0", "n0", "n1", "n2"));
+        request = Messages.raw("{\"src\":\"c1\",\"dest\":\"n0\",\"body\":{\"type\":\"generate\",\"msg_id\":1}}");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void generate() {
+        node.handleMessage(request);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void generateContended() {
+        node.handleMessage(request);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void generateContendedMax() {
+        node.handleMessage(request);
+    }
+}
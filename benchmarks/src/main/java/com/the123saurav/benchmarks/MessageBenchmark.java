@@ -0,0 +1,65 @@
+package com.the123saurav.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.eclipsesource.json.JsonValue;
+import com.the123saurav.common.Message;
+import com.the123saurav.common.PackedLongs;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Parsing an inbound line into a Message and turning it back into JSON.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class MessageBenchmark {
+
+    @Param({"broadcast", "gossip", "gossip-packed"})
+    public String kind;
+
+    private byte[] line;
+    private Message parsed;
+
+    @Setup
+    public void setup() {
+        final String json = switch (kind) {
+            case "broadcast" -> "{\"src\":\"c1\",\"dest\":\"n0\",\"body\":{\"type\":\"broadcast\",\"message\":1234,\"msg_id\":17}}";
+            case "gossip-packed" -> Messages.gossip("n1", "n0", 17, 0, 64, true).toJson().toString();
+            default -> Messages.gossip("n1", "n0", 17, 0, 64).toJson().toString();
+        };
+        line = json.getBytes(StandardCharsets.UTF_8);
+        parsed = new Message(line);
+        parsed.body();
+    }
+
+    // What every handler pays: wrap the line and read the routing fields.
+    @Benchmark
+    public void parseHeader(Blackhole bh) {
+        final Message m = new Message(line);
+        bh.consume(m.type());
+        bh.consume(m.msgId());
+        bh.consume(m.inReplyTo());
+    }
+
+    // What a handler that looks inside the body pays.
+    @Benchmark
+    public JsonValue parseBody() {
+        return new Message(line).body();
+    }
+
+    // What the gossip handler pays to get at a batch, in either form.
+    @Benchmark
+    public long[] readValues() {
+        final JsonValue values = new Message(line).body().get("messages");
+        return values == null ? null : PackedLongs.read(values);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return parsed.toJson().toString();
+    }
+}
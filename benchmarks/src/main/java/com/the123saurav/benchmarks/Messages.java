@@ -0,0 +1,51 @@
+package com.the123saurav.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.the123saurav.common.Message;
+import com.the123saurav.common.PackedLongs;
+
+// Canned inbound messages for driving handlers the way Main does.
+final class Messages {
+    private Messages() {
+    }
+
+    static Message raw(String line) {
+        return new Message(line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Message init(String nodeId, String... nodeIds) {
+        final JsonArray ids = new JsonArray();
+        for (String id : nodeIds) {
+            ids.add(id);
+        }
+        return new Message("c0", nodeId, Json.object()
+                .add("type", "init")
+                .add("msg_id", 0)
+                .add("node_id", nodeId)
+                .add("node_ids", ids));
+    }
+
+    // A gossip batch of `count` consecutive values starting at `from`.
+    static Message gossip(String src, String dest, long msgId, long from, int count) {
+        return gossip(src, dest, msgId, from, count, false);
+    }
+
+    // The same batch, optionally in the packed form nodes send with gossip.packed.
+    static Message gossip(String src, String dest, long msgId, long from, int count, boolean packed) {
+        final long[] vals = new long[count];
+        final JsonArray values = new JsonArray();
+        for (int i = 0; i < count; i++) {
+            vals[i] = from + i;
+            values.add(from + i);
+        }
+        final JsonObject body = Json.object()
+                .add("type", "gossip")
+                .add("msg_id", msgId)
+                .add("messages", packed ? Json.value(PackedLongs.encode(vals, count)) : values);
+        return new Message(src, dest, body);
+    }
+}
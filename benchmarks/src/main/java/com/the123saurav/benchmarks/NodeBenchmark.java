@@ -0,0 +1,61 @@
+package com.the123saurav.benchmarks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.the123saurav.common.Message;
+import com.the123saurav.common.Node;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Building outbound envelopes through Node.send, reply and rpc.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class NodeBenchmark {
+
+    static class NoopNode extends Node {
+        @Override
+        protected void handle(Message message) {
+        }
+    }
+
+    private final NoopNode node = new NoopNode();
+    private final Sink sink = new Sink();
+    private final JsonObject body = Json.object().add("type", "gossip").add("message", 1234);
+    private final JsonObject ok = Json.object().add("type", "gossip_ok");
+    private Message request;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        sink.to(bh);
+        node.setOutput(sink);
+        node.handleMessage(Messages.init("n0", "n0", "n1"));
+        request = Messages.raw("{\"src\":\"n1\",\"dest\":\"n0\",\"body\":{\"type\":\"gossip\",\"message\":1234,\"msg_id\":17}}");
+    }
+
+    @Benchmark
+    public void send() {
+        node.send("n1", body);
+    }
+
+    @Benchmark
+    public void reply() {
+        node.reply(request, ok);
+    }
+
+    // A full round trip: register, write the request, then feed back the reply so the timeout is
+    // cancelled and the table doesn't grow over the run.
+    @Benchmark
+    public JsonObject rpc() {
+        final long id = node.nextMessageId.get();
+        final CompletableFuture<JsonObject> f = node.rpc("n1", body);
+        node.handleMessage(new Message("n1", "n0", Json.object().add("type", "gossip_ok").add("in_reply_to", id)));
+        return f.getNow(null);
+    }
+}
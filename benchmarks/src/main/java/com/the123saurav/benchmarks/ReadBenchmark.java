@@ -0,0 +1,45 @@
+package com.the123saurav.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.the123saurav.common.Message;
+import com.the123saurav.gossip.GossipHandler;
+import com.the123saurav.gossip.SpanningTreeOverlay;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Serializing the read_ok reply as the seen set grows.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xmx4g"})
+public class ReadBenchmark {
+
+    private static final int LOAD_BATCH = 10_000;
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int values;
+
+    private final GossipHandler node = new GossipHandler(new SpanningTreeOverlay(4), 5, 512, 20, 4096, 0);
+    private final Sink sink = new Sink();
+    private Message read;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        sink.to(bh);
+        node.setOutput(sink);
+        node.handleMessage(Messages.init("n0", "n0"));
+        long msgId = 1;
+        for (long v = 0; v < values; v += LOAD_BATCH) {
+            node.handleMessage(Messages.gossip("n1", "n0", msgId++, v, (int) Math.min(LOAD_BATCH, values - v)));
+        }
+        read = Messages.raw("{\"src\":\"c1\",\"dest\":\"n0\",\"body\":{\"type\":\"read\",\"msg_id\":1}}");
+    }
+
+    @Benchmark
+    public void read() {
+        node.handleMessage(read);
+    }
+}
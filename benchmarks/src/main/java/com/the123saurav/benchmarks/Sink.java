@@ -0,0 +1,22 @@
+package com.the123saurav.benchmarks;
+
+import com.the123saurav.common.LineWriter;
+import org.openjdk.jmh.infra.Blackhole;
+
+// A LineWriter that hands every line to a JMH blackhole instead of stdout, so the benchmarks
+// measure building the envelope and not the pipe.
+class Sink implements LineWriter {
+    private volatile Blackhole blackhole;
+
+    void to(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public void write(CharSequence line) {
+        final Blackhole bh = blackhole;
+        if (bh != null) {
+            bh.consume(line);
+        }
+    }
+}
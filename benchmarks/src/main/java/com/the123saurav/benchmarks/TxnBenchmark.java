@@ -0,0 +1,65 @@
+package com.the123saurav.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.the123saurav.txn.TxnHandler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Transactions of four micro-operations over 1000 keys against one node, read-only, read-write and
+// both at once. Nodes fill reads into the request body, so every call parses a fresh message; the
+// node is alone so nothing is queued for replication. Pruning runs on its 100ms timer throughout.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class TxnBenchmark {
+
+    private static final String READ =
+            "{\"src\":\"c1\",\"dest\":\"n0\",\"body\":{\"type\":\"txn\",\"msg_id\":1,"
+                    + "\"txn\":[[\"r\",1,null],[\"r\",250,null],[\"r\",500,null],[\"r\",999,null]]}}";
+    private static final String WRITE =
+            "{\"src\":\"c1\",\"dest\":\"n0\",\"body\":{\"type\":\"txn\",\"msg_id\":2,"
+                    + "\"txn\":[[\"r\",1,null],[\"w\",250,7],[\"r\",500,null],[\"w\",999,8]]}}";
+
+    private final TxnHandler node = new TxnHandler();
+    private final Sink sink = new Sink();
+
+    @Setup
+    public void setup(Blackhole bh) {
+        sink.to(bh);
+        node.setOutput(sink);
+        node.handleMessage(Messages.init("n0", "n0"));
+        for (int key = 0; key < 1000; key++) {
+            node.handleMessage(Messages.raw("{\"src\":\"c1\",\"dest\":\"n0\",\"body\":{\"type\":\"txn\",\"msg_id\":0,"
+                    + "\"txn\":[[\"w\"," + key + ",0]]}}"));
+        }
+    }
+
+    @Benchmark
+    public void readOnly() {
+        node.handleMessage(Messages.raw(READ));
+    }
+
+    @Benchmark
+    public void readWrite() {
+        node.handleMessage(Messages.raw(WRITE));
+    }
+
+    // Snapshot reads next to commits: readers never take the commit lock, so they shouldn't slow down.
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public void mixedReads() {
+        node.handleMessage(Messages.raw(READ));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedWrites() {
+        node.handleMessage(Messages.raw(WRITE));
+    }
+}
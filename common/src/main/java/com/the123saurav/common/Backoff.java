@@ -0,0 +1,20 @@
+package com.the123saurav.common;
+
+import java.util.random.RandomGenerator;
+
+// Exponential backoff with full jitter: attempt n waits a uniformly random time in
+// [0, min(capMs, baseMs * 2^n)], which keeps retries from many senders from lining up.
+public class Backoff {
+    private final long baseMs;
+    private final long capMs;
+
+    public Backoff(long baseMs, long capMs) {
+        this.baseMs = baseMs;
+        this.capMs = capMs;
+    }
+
+    public long delayMs(int attempt, RandomGenerator random) {
+        final long ceiling = Math.min(capMs, baseMs << Math.min(attempt, 30));
+        return 1 + random.nextLong(Math.max(1, ceiling));
+    }
+}
@@ -0,0 +1,23 @@
+package com.the123saurav.common;
+
+// Where a node reads the time. The system clock in production; a harness such as the Simulator hands
+// nodes a virtual one, so a run doesn't depend on how fast the machine is.
+public interface Clock {
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    // For measuring intervals, like System.nanoTime().
+    long nanoTime();
+
+    // Milliseconds since the epoch, like System.currentTimeMillis().
+    long currentTimeMillis();
+}
@@ -0,0 +1,205 @@
+package com.the123saurav.common;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+// A concurrent set of longs stored as fixed size bitmap chunks, in the spirit of a roaring bitmap.
+// Values are split into a chunk key (high bits) and a bit offset within the chunk (low bits).
+// Dense, non-negative values - which is what maelstrom workloads generate - are looked up through a
+// directly indexed chunk directory, so add/contains never box or allocate once the chunk exists.
+// Anything outside the direct range falls back to a hash map of chunks.
+public class ConcurrentLongBitmap {
+    // 4096 values per chunk, i.e. 64 words or 512 bytes.
+    static final int CHUNK_BITS = 12;
+    public static final int CHUNK_WORDS = 1 << (CHUNK_BITS - 6);
+    private static final long LOW_MASK = (1L << CHUNK_BITS) - 1;
+
+    // Chunk keys below this are held in the directory, which covers values up to 2^32.
+    private static final long MAX_DIRECT_CHUNKS = 1L << (32 - CHUNK_BITS);
+
+    // Marks a directory slot that has been copied to a larger directory.
+    private static final AtomicLongArray MOVED = new AtomicLongArray(0);
+
+    private volatile AtomicReferenceArray<AtomicLongArray> direct = new AtomicReferenceArray<>(16);
+    private final ConcurrentHashMap<Long, AtomicLongArray> sparse = new ConcurrentHashMap<>();
+    private final LongAdder size = new LongAdder();
+
+    // Add a value, returning true if it was not already present.
+    public boolean add(long value) {
+        final AtomicLongArray chunk = chunkFor(value >> CHUNK_BITS, true);
+        final int bit = (int) (value & LOW_MASK);
+        final int word = bit >>> 6;
+        final long mask = 1L << bit;
+        long prev;
+        do {
+            prev = chunk.get(word);
+            if ((prev & mask) != 0) {
+                return false;
+            }
+        } while (!chunk.compareAndSet(word, prev, prev | mask));
+        size.increment();
+        return true;
+    }
+
+    public boolean contains(long value) {
+        final AtomicLongArray chunk = chunkFor(value >> CHUNK_BITS, false);
+        if (chunk == null) {
+            return false;
+        }
+        final int bit = (int) (value & LOW_MASK);
+        return (chunk.get(bit >>> 6) & (1L << bit)) != 0;
+    }
+
+    public long size() {
+        return size.sum();
+    }
+
+    // Visit every value in ascending order. Values added concurrently may or may not be seen.
+    public void forEach(LongConsumer consumer) {
+        final Long[] keys = sparse.keySet().toArray(new Long[0]);
+        Arrays.sort(keys);
+        int i = 0;
+        for (; i < keys.length && keys[i] < 0; i++) {
+            forEachInChunk(keys[i], sparse.get(keys[i]), consumer);
+        }
+        final int directChunks = direct.length();
+        for (int key = 0; key < directChunks; key++) {
+            forEachInChunk(key, chunkFor(key, false), consumer);
+        }
+        for (; i < keys.length; i++) {
+            forEachInChunk(keys[i], sparse.get(keys[i]), consumer);
+        }
+    }
+
+    // Keys of every chunk holding values, in ascending order. A chunk covers 2^CHUNK_BITS consecutive values.
+    public long[] chunkKeys() {
+        final Long[] sparseKeys = sparse.keySet().toArray(new Long[0]);
+        final int directChunks = direct.length();
+        final long[] keys = new long[sparseKeys.length + directChunks];
+        int n = 0;
+        for (Long key : sparseKeys) {
+            keys[n++] = key;
+        }
+        for (int key = 0; key < directChunks; key++) {
+            if (chunkFor(key, false) != null) {
+                keys[n++] = key;
+            }
+        }
+        final long[] result = Arrays.copyOf(keys, n);
+        Arrays.sort(result);
+        return result;
+    }
+
+    // A summary of a chunk's contents: two bitmaps with equal chunks have equal hashes, and an absent
+    // chunk hashes to 0. Used to find which ranges two sets disagree on without shipping the values.
+    public long chunkHash(long key) {
+        final AtomicLongArray chunk = chunkFor(key, false);
+        if (chunk == null) {
+            return 0;
+        }
+        long h = 0;
+        for (int w = 0; w < CHUNK_WORDS; w++) {
+            h = (h + chunk.get(w)) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    // Visit every value in the given chunk in ascending order.
+    public void forEachInChunk(long key, LongConsumer consumer) {
+        forEachInChunk(key, chunkFor(key, false), consumer);
+    }
+
+    // Copy a chunk's bitmap words into `words`, which must hold CHUNK_WORDS. Returns false if the chunk is absent.
+    public boolean copyChunk(long key, long[] words) {
+        final AtomicLongArray chunk = chunkFor(key, false);
+        if (chunk == null) {
+            return false;
+        }
+        for (int w = 0; w < CHUNK_WORDS; w++) {
+            words[w] = chunk.get(w);
+        }
+        return true;
+    }
+
+    // Add every value set in `words`, a chunk's worth of bitmap as produced by copyChunk.
+    public void addChunk(long key, long[] words) {
+        final AtomicLongArray chunk = chunkFor(key, true);
+        for (int w = 0; w < CHUNK_WORDS; w++) {
+            long prev;
+            do {
+                prev = chunk.get(w);
+            } while ((prev | words[w]) != prev && !chunk.compareAndSet(w, prev, prev | words[w]));
+            size.add(Long.bitCount(words[w] & ~prev));
+        }
+    }
+
+    private static void forEachInChunk(long key, AtomicLongArray chunk, LongConsumer consumer) {
+        if (chunk == null) {
+            return;
+        }
+        final long base = key << CHUNK_BITS;
+        for (int w = 0; w < CHUNK_WORDS; w++) {
+            long bits = chunk.get(w);
+            while (bits != 0) {
+                final int tz = Long.numberOfTrailingZeros(bits);
+                consumer.accept(base + ((long) w << 6) + tz);
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    private AtomicLongArray chunkFor(long key, boolean create) {
+        if (key < 0 || key >= MAX_DIRECT_CHUNKS) {
+            return create ? sparse.computeIfAbsent(key, k -> new AtomicLongArray(CHUNK_WORDS)) : sparse.get(key);
+        }
+        final int index = (int) key;
+        while (true) {
+            final AtomicReferenceArray<AtomicLongArray> dir = direct;
+            if (index >= dir.length()) {
+                if (!create) {
+                    return null;
+                }
+                grow(index + 1);
+                continue;
+            }
+            AtomicLongArray chunk = dir.get(index);
+            if (chunk == MOVED) {
+                // A resize is in flight, wait for the new directory to be published.
+                Thread.onSpinWait();
+                continue;
+            }
+            if (chunk == null) {
+                if (!create) {
+                    return null;
+                }
+                chunk = new AtomicLongArray(CHUNK_WORDS);
+                if (!dir.compareAndSet(index, null, chunk)) {
+                    continue;
+                }
+            }
+            return chunk;
+        }
+    }
+
+    private synchronized void grow(int minLength) {
+        final AtomicReferenceArray<AtomicLongArray> old = direct;
+        if (old.length() >= minLength) {
+            return;
+        }
+        int length = old.length();
+        while (length < minLength) {
+            length <<= 1;
+        }
+        final AtomicReferenceArray<AtomicLongArray> grown = new AtomicReferenceArray<>(length);
+        // Seal every slot so a concurrent install can't land in the old directory after we copied it.
+        for (int i = 0; i < old.length(); i++) {
+            grown.set(i, old.getAndSet(i, MOVED));
+        }
+        direct = grown;
+    }
+}
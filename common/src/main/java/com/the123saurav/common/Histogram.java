@@ -0,0 +1,98 @@
+package com.the123saurav.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+
+// A lock-free histogram of non-negative longs with HDR-style log-linear buckets.
+// Each power of two is split into 32 equal sub-buckets, so any recorded value is reported to within
+// about 3%, in a fixed ~16KB of counters whatever the range. Recording is an index computation and
+// one atomic increment; reading walks the buckets and may miss values recorded concurrently.
+public class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Values up to 2^MAX_BITS - 1 get their own bucket, larger ones land in the last.
+    private static final int MAX_BITS = 62;
+    private static final int BUCKETS = (MAX_BITS - SUB_BITS + 2) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(index(value));
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        final long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // The smallest bucket bound with at least fraction p of recorded values at or below it.
+    public long percentile(double p) {
+        final long n = total.sum();
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(p * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public JsonObject toJson() {
+        return Json.object()
+                .add("count", count())
+                .add("mean", Math.round(mean()))
+                .add("p50", percentile(0.50))
+                .add("p90", percentile(0.90))
+                .add("p99", percentile(0.99))
+                .add("p999", percentile(0.999))
+                .add("max", max());
+    }
+
+    // Values below SUB_COUNT map to themselves. Above that, the top SUB_BITS + 1 bits pick the
+    // bucket: the position of the highest bit selects the power of two and the next SUB_BITS bits
+    // select the sub-bucket within it.
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        final int shift = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_BITS) - SUB_BITS;
+        final int sub = (int) Math.min((value >>> shift) - SUB_COUNT, SUB_COUNT - 1);
+        return (shift + 1) * SUB_COUNT + sub;
+    }
+
+    // The largest value which maps to bucket i.
+    static long upperBound(int i) {
+        if (i < SUB_COUNT) {
+            return i;
+        }
+        final int shift = i / SUB_COUNT - 1;
+        final long sub = i % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
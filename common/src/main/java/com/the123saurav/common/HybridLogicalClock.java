@@ -0,0 +1,76 @@
+package com.the123saurav.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// A hybrid logical clock: timestamps that track wall-clock milliseconds, never go backwards, and order
+// causally related events across nodes without any messages of their own.
+// A timestamp packs milliseconds since the epoch into the high 48 bits and a logical counter into the low
+// LOGICAL_BITS. Events within one millisecond, or while the wall clock is behind a timestamp we've already
+// seen, bump the counter instead; if it runs out it carries into the milliseconds, which only moves us a
+// little ahead of real time. Nothing ever waits for the wall clock to catch up.
+// Node stamps every envelope it sends to another node with now() and observes the stamp on every one it
+// receives, so a timestamp taken after handling a message is greater than any taken before it was sent.
+// A stamp more than maxOffsetMs ahead of our own wall clock is taken in only up to that bound, so a node
+// whose clock has jumped forward can't drag everyone else's timestamps along with it. Causal order is
+// then only kept within the bound; observe() reports it so the caller can count it.
+// The state is a single AtomicLong updated by CAS.
+public class HybridLogicalClock {
+    public static final int LOGICAL_BITS = 16;
+    private static final long LOGICAL_MASK = (1L << LOGICAL_BITS) - 1;
+
+    private final AtomicLong last = new AtomicLong();
+    private final LongSupplier wallMs;
+    private final long maxOffsetMs;
+
+    public HybridLogicalClock() {
+        this(System::currentTimeMillis, Long.MAX_VALUE);
+    }
+
+    public HybridLogicalClock(LongSupplier wallMs, long maxOffsetMs) {
+        this.wallMs = wallMs;
+        this.maxOffsetMs = maxOffsetMs;
+    }
+
+    // A fresh timestamp, greater than every one handed out or observed so far.
+    public long now() {
+        final long wall = wallMs.getAsLong() << LOGICAL_BITS;
+        while (true) {
+            final long prev = last.get();
+            final long next = Math.max(wall, prev + 1);
+            if (last.compareAndSet(prev, next)) {
+                return next;
+            }
+        }
+    }
+
+    // Take in a timestamp from another node, so everything we stamp from here on is ordered after it.
+    // A plain read when we are already ahead, which is the usual case. Returns false if the stamp was too
+    // far ahead of our wall clock and was only taken in up to maxOffsetMs past it.
+    public boolean observe(long remote) {
+        long prev = last.get();
+        if (remote <= prev) {
+            return true;
+        }
+        final long wall = wallMs.getAsLong();
+        final boolean within = physicalMs(remote) - wall <= maxOffsetMs;
+        final long target = within ? remote : (wall + maxOffsetMs) << LOGICAL_BITS;
+        while (target > prev && !last.compareAndSet(prev, target)) {
+            prev = last.get();
+        }
+        return within;
+    }
+
+    // The latest timestamp handed out or observed, without taking a new one.
+    public long current() {
+        return last.get();
+    }
+
+    public static long physicalMs(long timestamp) {
+        return timestamp >>> LOGICAL_BITS;
+    }
+
+    public static int logical(long timestamp) {
+        return (int) (timestamp & LOGICAL_MASK);
+    }
+}
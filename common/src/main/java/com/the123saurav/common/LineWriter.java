@@ -0,0 +1,6 @@
+package com.the123saurav.common;
+
+// Where a node writes its outbound messages, one serialized message per line.
+public interface LineWriter {
+    void write(CharSequence line);
+}
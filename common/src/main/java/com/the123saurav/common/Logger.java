@@ -1,20 +1,318 @@
 package com.the123saurav.common;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.TimeZone;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+import com.eclipsesource.json.JsonValue;
+
+// Asynchronous, leveled logging to stderr.
+// Callers claim a slot in a fixed ring buffer and store the level, time, a template and its arguments;
+// a background thread does the formatting and writes in batches. Templates use {} placeholders which
+// are filled in on the drain thread, so a disabled level costs a comparison and an enabled one costs
+// no string building on the caller. Primitive arguments have overloads of their own so they are only
+// boxed once the level is known to be on. Collections, maps and JSON may change before the drain thread
+// gets to them, so those are rendered on the caller. If the ring is full the entry is dropped rather
+// than blocking a handler, and the number dropped is reported once there is room again.
+// error(template, throwable) also writes the throwable's stack trace.
+// Noisy call sites can hold a RateLimit to cap how many lines per second they emit.
 public class Logger {
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static volatile Level level = Level.valueOf(System.getProperty("log.level", "INFO").toUpperCase());
+
+    private static final DateTimeFormatter df = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+
+    // Ring slots. `sequence` is written last, once the rest of the slot is filled in.
+    private static final class Entry {
+        volatile long sequence = -1;
+        Level level;
+        long timeMs;
+        String template;
+        Object arg1;
+        Object arg2;
+        Throwable thrown;
+    }
+
+    private static final Entry[] ring = new Entry[CAPACITY];
+    // Next sequence to claim, and next sequence the drain thread will consume.
+    private static final AtomicLong head = new AtomicLong();
+    private static volatile long tail = 0;
+    // Everything below this sequence has reached stderr.
+    private static volatile long written = 0;
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static final OutputStream err = new FileOutputStream(FileDescriptor.err);
+    private static final Thread drainer;
+    private static volatile boolean idle = false;
 
-    private static TimeZone tz = TimeZone.getDefault();
-    static DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
     static {
-        df.setTimeZone(tz);
+        for (int i = 0; i < CAPACITY; i++) {
+            ring[i] = new Entry();
+        }
+        drainer = new Thread(Logger::drain, "Logger");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    // Caps a call site to `perSecond` lines in any one second; the rest are counted and skipped.
+    public static final class RateLimit {
+        private final int perSecond;
+        private final AtomicLong window = new AtomicLong();
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicInteger suppressed = new AtomicInteger();
+
+        public RateLimit(int perSecond) {
+            this.perSecond = perSecond;
+        }
+
+        boolean tryAcquire() {
+            final long second = System.currentTimeMillis() / 1000;
+            final long current = window.get();
+            if (second != current && window.compareAndSet(current, second)) {
+                count.set(0);
+            }
+            if (count.incrementAndGet() <= perSecond) {
+                return true;
+            }
+            suppressed.incrementAndGet();
+            return false;
+        }
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static boolean isEnabled(Level l) {
+        return l.compareTo(level) >= 0;
+    }
+
+    public static void debug(String template) {
+        log(Level.DEBUG, template, null, null);
+    }
+
+    public static void debug(String template, Object arg1) {
+        log(Level.DEBUG, template, arg1, null);
+    }
+
+    public static void debug(String template, Object arg1, Object arg2) {
+        log(Level.DEBUG, template, arg1, arg2);
+    }
+
+    public static void debug(String template, long arg1) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, template, arg1, null);
+        }
+    }
+
+    public static void debug(String template, Object arg1, long arg2) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, template, arg1, arg2);
+        }
+    }
+
+    public static void info(String template) {
+        log(Level.INFO, template, null, null);
+    }
+
+    public static void info(String template, Object arg1) {
+        log(Level.INFO, template, arg1, null);
+    }
+
+    public static void info(String template, Object arg1, Object arg2) {
+        log(Level.INFO, template, arg1, arg2);
+    }
+
+    public static void info(String template, long arg1) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, template, arg1, null);
+        }
+    }
+
+    public static void info(String template, long arg1, long arg2) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, template, arg1, arg2);
+        }
+    }
+
+    public static void info(String template, Object arg1, long arg2) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, template, arg1, arg2);
+        }
+    }
+
+    public static void info(String template, Object arg1, double arg2) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, template, arg1, arg2);
+        }
+    }
+
+    public static void warn(String template, Object arg1) {
+        log(Level.WARN, template, arg1, null);
+    }
+
+    public static void warn(RateLimit limit, String template, Object arg1, Object arg2) {
+        if (isEnabled(Level.WARN) && limit.tryAcquire()) {
+            log(Level.WARN, template, arg1, arg2);
+            final int suppressed = limit.suppressed.getAndSet(0);
+            if (suppressed > 0) {
+                log(Level.WARN, "... and {} more like it", suppressed, null);
+            }
+        }
+    }
+
+    public static void warn(RateLimit limit, String template, long arg1, Object arg2) {
+        if (isEnabled(Level.WARN)) {
+            warn(limit, template, (Object) arg1, arg2);
+        }
+    }
+
+    public static void error(String template, Object arg1) {
+        log(Level.ERROR, template, arg1, null);
+    }
+
+    // `thrown` fills the placeholder and its stack trace follows the line.
+    public static void error(String template, Throwable thrown) {
+        log(Level.ERROR, template, thrown, null, thrown);
+    }
+
+    public static void log(Level l, String template, Object arg1, Object arg2) {
+        log(l, template, arg1, arg2, null);
+    }
+
+    private static void log(Level l, String template, Object arg1, Object arg2, Throwable thrown) {
+        if (!isEnabled(l)) {
+            return;
+        }
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+
+        final Entry e = ring[(int) (seq & MASK)];
+        e.level = l;
+        e.timeMs = System.currentTimeMillis();
+        e.template = template;
+        e.arg1 = snapshot(arg1);
+        e.arg2 = snapshot(arg2);
+        e.thrown = thrown;
+        e.sequence = seq;
+        if (idle) {
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    // Arguments are formatted on the drain thread, after the caller has moved on. Anything that can
+    // still change under us by then is rendered now.
+    private static Object snapshot(Object arg) {
+        if (arg instanceof Collection || arg instanceof Map || arg instanceof JsonValue) {
+            return String.valueOf(arg);
+        }
+        return arg;
+    }
+
+    // Block until everything logged so far has been written, e.g. before exiting.
+    public static void flush() {
+        final long target = head.get();
+        final long deadline = System.nanoTime() + 1_000_000_000L;
+        while (written < target && System.nanoTime() < deadline) {
+            LockSupport.unpark(drainer);
+            Thread.onSpinWait();
+        }
+    }
+
+    private static void drain() {
+        final StringBuilder sb = new StringBuilder(64 * 1024);
+        while (true) {
+            try {
+                final Entry e = ring[(int) (tail & MASK)];
+                if (e.sequence != tail) {
+                    // Nothing published yet, write out what we have and sleep.
+                    write(sb);
+                    idle = true;
+                    if (e.sequence != tail) {
+                        LockSupport.parkNanos(Logger.class, 10_000_000L);
+                    }
+                    idle = false;
+                    continue;
+                }
+                try {
+                    format(sb, e);
+                } catch (RuntimeException ex) {
+                    sb.append("Failed to format log message ").append(e.template).append(": ").append(ex).append('\n');
+                }
+                e.arg1 = null;
+                e.arg2 = null;
+                e.thrown = null;
+                tail = tail + 1;
+                if (sb.length() > 32 * 1024) {
+                    write(sb);
+                }
+            } catch (IOException ex) {
+                // Nowhere left to report this, drop the batch.
+                sb.setLength(0);
+            }
+        }
+    }
+
+    private static void format(StringBuilder sb, Entry e) {
+        df.formatTo(Instant.ofEpochMilli(e.timeMs), sb);
+        sb.append(' ');
+        if (e.level != Level.INFO) {
+            sb.append(e.level).append(' ');
+        }
+        final String t = e.template;
+        final int first = t.indexOf("{}");
+        if (first < 0) {
+            sb.append(t);
+        } else {
+            sb.append(t, 0, first).append(e.arg1);
+            final int second = t.indexOf("{}", first + 2);
+            if (second < 0) {
+                sb.append(t, first + 2, t.length());
+            } else {
+                sb.append(t, first + 2, second).append(e.arg2).append(t, second + 2, t.length());
+            }
+        }
+        sb.append('\n');
+        if (e.thrown != null) {
+            final StringWriter trace = new StringWriter();
+            e.thrown.printStackTrace(new PrintWriter(trace));
+            sb.append(trace);
+        }
     }
 
-    public static void log(String message) {
-        System.err.println(df.format(new Date()) + " " + message);
-//        System.err.flush();
+    private static void write(StringBuilder sb) throws IOException {
+        final long upTo = tail;
+        final long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            sb.append("Logger dropped ").append(lost).append(" messages\n");
+        }
+        if (sb.length() > 0) {
+            err.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            sb.setLength(0);
+        }
+        written = upTo;
     }
 }
@@ -0,0 +1,349 @@
+package com.the123saurav.common;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Keeps a ConcurrentLongBitmap on disk so a restarted node can rebuild it locally.
+// New values go to an append-only log made of memory mapped segment files. Appends only land in a
+// buffer; a single committer thread writes everything gathered since its last pass as one group and
+// forces it to disk once, so a burst of values costs one msync instead of one each. Every group
+// carries a count and CRC, and replay stops at the first torn or missing group.
+// Every `snapshotMs` the committer starts a fresh segment, writes the whole set as a compact bitmap
+// snapshot (512 bytes per 4096-value chunk) and deletes the segments the snapshot covers, so replay
+// is one snapshot read plus a short log tail.
+// Values appended since the last commit, at most `commitMs` worth, are lost on a crash. For gossip
+// that is fine: they were acked and forwarded already, and anti-entropy brings them back from peers.
+// Segments are unmapped as soon as we are done with them rather than whenever their buffers happen to
+// be collected, so a long run doesn't accumulate one mapping per segment it ever wrote.
+public class LongSetLog {
+    private static final long SNAPSHOT_MAGIC = 0x4c4f4e47534e4150L;
+    private static final int GROUP_HEADER = 8;
+    // Unsafe.invokeCleaner, the only way to unmap a MappedByteBuffer on demand that works on every JDK
+    // we build with. Looked up reflectively so the build doesn't depend on jdk.unsupported. Null if it
+    // is not accessible, in which case mappings are left to the garbage collector.
+    private static final MethodHandle UNMAP = unmapHandle();
+
+    private final Path dir;
+    private final ConcurrentLongBitmap set;
+    private final int segmentBytes;
+    private final long commitNanos;
+    private final long snapshotNanos;
+
+    // Appends waiting for the committer. Swapped out wholesale under the lock.
+    private long[] pending = new long[1024];
+    private int pendingCount = 0;
+
+    // Owned by the committer thread.
+    private int segment;
+    private MappedByteBuffer mapped;
+    private long lastSnapshotNanos = System.nanoTime();
+    private long[] spare = new long[1024];
+
+    private final Thread committer;
+    private volatile boolean closed = false;
+
+    private LongSetLog(Path dir, ConcurrentLongBitmap set, int segmentBytes, long commitMs, long snapshotMs) {
+        this.dir = dir;
+        this.set = set;
+        this.segmentBytes = segmentBytes;
+        this.commitNanos = TimeUnit.MILLISECONDS.toNanos(commitMs);
+        this.snapshotNanos = TimeUnit.MILLISECONDS.toNanos(snapshotMs);
+        this.committer = new Thread(this::run, "LongSetLog");
+        this.committer.setDaemon(true);
+    }
+
+    // Load whatever `dir` holds into `set`, then start logging to it.
+    public static LongSetLog open(Path dir, ConcurrentLongBitmap set, int segmentBytes, long commitMs, long snapshotMs)
+            throws IOException {
+        Files.createDirectories(dir);
+        final LongSetLog log = new LongSetLog(dir, set, segmentBytes, commitMs, snapshotMs);
+        final int next = log.replay();
+        // Never append after a tail that may be torn, start a new segment instead.
+        log.openSegment(next);
+        log.committer.start();
+        return log;
+    }
+
+    public void append(long value) {
+        synchronized (this) {
+            if (pendingCount == pending.length) {
+                final long[] grown = new long[pending.length * 2];
+                System.arraycopy(pending, 0, grown, 0, pendingCount);
+                pending = grown;
+            }
+            pending[pendingCount++] = value;
+        }
+    }
+
+    // Commit what has been appended so far and stop.
+    public void close() throws InterruptedException {
+        closed = true;
+        LockSupport.unpark(committer);
+        committer.join();
+    }
+
+    // Replay //////////////////////////////////////////////////////////////////
+
+    // Returns the index the next segment should get.
+    private int replay() throws IOException {
+        int next = 0;
+        final Path snapshot = dir.resolve("snapshot");
+        if (Files.exists(snapshot)) {
+            next = readSnapshot(snapshot);
+        }
+        for (int index : segments()) {
+            if (index >= next) {
+                replaySegment(segmentPath(index));
+                next = index + 1;
+            }
+        }
+        return next;
+    }
+
+    private List<Integer> segments() throws IOException {
+        final List<Integer> indexes = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.startsWith("wal-"))
+                    .forEach(name -> indexes.add(Integer.parseInt(name.substring(4))));
+        }
+        indexes.sort(null);
+        return indexes;
+    }
+
+    private void replaySegment(Path path) throws IOException {
+        final MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        try {
+            replayGroups(path, buf);
+        } finally {
+            unmap(buf);
+        }
+    }
+
+    private void replayGroups(Path path, MappedByteBuffer buf) {
+        final CRC32 crc = new CRC32();
+        while (buf.remaining() >= GROUP_HEADER) {
+            final int count = buf.getInt(buf.position());
+            final int expected = buf.getInt(buf.position() + 4);
+            if (count <= 0 || (long) count * 8 > buf.remaining() - GROUP_HEADER) {
+                return;
+            }
+            final ByteBuffer values = buf.slice(buf.position() + GROUP_HEADER, count * 8);
+            crc.reset();
+            crc.update(values.duplicate());
+            if ((int) crc.getValue() != expected) {
+                Logger.warn("Torn group in {}, ignoring the rest of it", path);
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                set.add(values.getLong(i * 8));
+            }
+            buf.position(buf.position() + GROUP_HEADER + count * 8);
+        }
+    }
+
+    // Snapshot layout: magic, next segment index, chunk count, then per chunk its key and bitmap
+    // words, followed by a CRC of everything before it.
+    private int readSnapshot(Path path) throws IOException {
+        final ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buf.limit() < 20) {
+            throw new IOException("truncated snapshot " + path);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.limit() - 4);
+        if (buf.getLong(0) != SNAPSHOT_MAGIC || (int) crc.getValue() != buf.getInt(buf.limit() - 4)) {
+            throw new IOException("corrupt snapshot " + path);
+        }
+        buf.position(8);
+        final int next = buf.getInt();
+        final int chunks = buf.getInt();
+        final long[] words = new long[ConcurrentLongBitmap.CHUNK_WORDS];
+        for (int c = 0; c < chunks; c++) {
+            final long key = buf.getLong();
+            for (int w = 0; w < words.length; w++) {
+                words[w] = buf.getLong();
+            }
+            set.addChunk(key, words);
+        }
+        return next;
+    }
+
+    // Committer ///////////////////////////////////////////////////////////////
+
+    private void run() {
+        while (true) {
+            final boolean last = closed;
+            try {
+                commit();
+                if (System.nanoTime() - lastSnapshotNanos > snapshotNanos) {
+                    snapshot();
+                }
+            } catch (Throwable e) {
+                Logger.error("Write-ahead log commit failed: {}", e);
+            }
+            if (last) {
+                unmap(mapped);
+                mapped = null;
+                return;
+            }
+            LockSupport.parkNanos(this, commitNanos);
+        }
+    }
+
+    private void commit() throws IOException {
+        final long[] batch;
+        final int count;
+        synchronized (this) {
+            if (pendingCount == 0) {
+                return;
+            }
+            batch = pending;
+            count = pendingCount;
+            // The spare is handed out here and only comes back once the batch it replaces is on disk, so
+            // a commit that throws halfway can never leave appenders writing into the array being copied.
+            pending = spare != null && spare.length >= batch.length ? spare : new long[batch.length];
+            spare = null;
+            pendingCount = 0;
+        }
+        final CRC32 crc = new CRC32();
+        int from = 0;
+        while (from < count) {
+            int room = (mapped.remaining() - GROUP_HEADER) / 8;
+            if (room <= 0) {
+                openSegment(segment + 1);
+                room = (mapped.remaining() - GROUP_HEADER) / 8;
+            }
+            final int n = Math.min(room, count - from);
+            final int start = mapped.position();
+            final ByteBuffer values = mapped.slice(start + GROUP_HEADER, n * 8);
+            for (int i = 0; i < n; i++) {
+                values.putLong(batch[from + i]);
+            }
+            crc.reset();
+            crc.update(values.flip());
+            mapped.putInt(start + 4, (int) crc.getValue());
+            mapped.putInt(start, n);
+            mapped.position(start + GROUP_HEADER + n * 8);
+            from += n;
+        }
+        mapped.force();
+        spare = batch;
+    }
+
+    // The new segment is mapped before the old one is let go, so if that fails we still have a
+    // segment and the next commit simply tries again.
+    private void openSegment(int index) throws IOException {
+        final MappedByteBuffer next;
+        try (FileChannel ch = FileChannel.open(segmentPath(index),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            next = ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        if (mapped != null) {
+            mapped.force();
+            unmap(mapped);
+        }
+        mapped = next;
+        segment = index;
+        // Forcing the segment only covers its contents, the directory entry needs its own sync.
+        syncDir();
+    }
+
+    // Start a new segment, write the set out and drop the segments it now covers. Values landing
+    // in the set while we copy it are also in the new segment, replaying them twice is harmless.
+    private void snapshot() throws IOException {
+        lastSnapshotNanos = System.nanoTime();
+        openSegment(segment + 1);
+        final long[] keys = set.chunkKeys();
+        final ByteBuffer buf = ByteBuffer.allocate(20 + keys.length * (8 + ConcurrentLongBitmap.CHUNK_WORDS * 8));
+        buf.putLong(SNAPSHOT_MAGIC).putInt(segment).putInt(0);
+        final long[] words = new long[ConcurrentLongBitmap.CHUNK_WORDS];
+        int chunks = 0;
+        for (long key : keys) {
+            if (set.copyChunk(key, words)) {
+                buf.putLong(key);
+                for (long w : words) {
+                    buf.putLong(w);
+                }
+                chunks++;
+            }
+        }
+        buf.putInt(12, chunks);
+        final CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+
+        final Path tmp = dir.resolve("snapshot.tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve("snapshot"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // The rename has to be durable before the segments it replaces go, or a crash could leave us
+        // with neither.
+        syncDir();
+        for (int index : segments()) {
+            if (index < segment) {
+                Files.deleteIfExists(segmentPath(index));
+            }
+        }
+    }
+
+    private Path segmentPath(int index) {
+        return dir.resolve(String.format("wal-%08d", index));
+    }
+
+    private void syncDir() throws IOException {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        }
+    }
+
+    // Only call this on a buffer nothing will touch again, accessing it afterwards crashes the JVM.
+    private static void unmap(MappedByteBuffer buf) {
+        if (UNMAP == null || buf == null) {
+            return;
+        }
+        try {
+            UNMAP.invokeExact((ByteBuffer) buf);
+        } catch (Throwable e) {
+            Logger.warn("Could not unmap a log segment: {}", e);
+        }
+    }
+
+    private static MethodHandle unmapHandle() {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Logger.warn("Cannot unmap log segments, leaving them to the garbage collector: {}", e);
+            return null;
+        }
+    }
+}
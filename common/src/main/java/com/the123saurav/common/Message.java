@@ -1,19 +1,38 @@
 package com.the123saurav.common;
 
+import java.nio.charset.StandardCharsets;
+
 import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
 
 // A message contains a source and destination, and a JsonObject body.
+// Messages read off the wire keep their raw bytes: routing fields are scanned out of them directly
+// and the body is only parsed into a JsonObject the first time someone asks for it.
 public class Message implements IJson {
     public final String src;
     public final String dest;
-    public final JsonObject body;
+
+    // Raw envelope and where the body sits inside it, null for messages built in process.
+    private final byte[] raw;
+    private final int bodyStart;
+    private final int bodyEnd;
+    private volatile JsonObject body;
+
+    // Routing fields from the body, filled in lazily.
+    private String type;
+    private long msgId = MessageCodec.NONE;
+    private long inReplyTo = MessageCodec.NONE;
+    private long hlc = MessageCodec.NONE;
+    private volatile boolean headerParsed;
 
     public Message(String src, String dest, JsonObject body) {
         this.src = src;
         this.dest = dest;
         this.body = body;
+        this.raw = null;
+        this.bodyStart = 0;
+        this.bodyEnd = 0;
     }
 
     public Message(String src, String dest, IJson body) {
@@ -26,10 +45,109 @@ public class Message implements IJson {
         this.src  = o.getString("src", null);
         this.dest = o.getString("dest", null);
         this.body = o.get("body").asObject();
+        this.raw = null;
+        this.bodyStart = 0;
+        this.bodyEnd = 0;
+    }
+
+    // Wrap a raw UTF-8 encoded envelope. Only the top level of the envelope is scanned here.
+    public Message(byte[] raw) {
+        final int[] spans = new int[4];
+        String src = null;
+        String dest = null;
+        int bodyStart = -1;
+        int bodyEnd = -1;
+        int i = MessageCodec.skipWhitespace(raw, 0, raw.length);
+        if (i >= raw.length || raw[i] != '{') {
+            throw Error.malformedRequest("message is not a json object");
+        }
+        i++;
+        while ((i = MessageCodec.nextMember(raw, i, raw.length, spans)) != -1) {
+            if (MessageCodec.keyEquals(raw, spans[0], spans[1], MessageCodec.SRC)) {
+                src = MessageCodec.readString(raw, spans[2], spans[3]);
+            } else if (MessageCodec.keyEquals(raw, spans[0], spans[1], MessageCodec.DEST)) {
+                dest = MessageCodec.readString(raw, spans[2], spans[3]);
+            } else if (MessageCodec.keyEquals(raw, spans[0], spans[1], MessageCodec.BODY)) {
+                bodyStart = spans[2];
+                bodyEnd = spans[3];
+            }
+        }
+        if (bodyStart == -1 || raw[bodyStart] != '{') {
+            throw Error.malformedRequest("message has no body object");
+        }
+        this.src = src;
+        this.dest = dest;
+        this.raw = raw;
+        this.bodyStart = bodyStart;
+        this.bodyEnd = bodyEnd;
+    }
+
+    // The body as JSON, parsed on first use.
+    public JsonObject body() {
+        JsonObject b = body;
+        if (b == null) {
+            b = Json.parse(new String(raw, bodyStart, bodyEnd - bodyStart, StandardCharsets.UTF_8)).asObject();
+            body = b;
+        }
+        return b;
+    }
+
+    public String type() {
+        parseHeader();
+        return type;
+    }
+
+    // The msg_id of this message, or -1 if it has none.
+    public long msgId() {
+        parseHeader();
+        return msgId;
+    }
+
+    // The msg_id this message replies to, or -1 if it is not a reply.
+    public long inReplyTo() {
+        parseHeader();
+        return inReplyTo;
+    }
+
+    // The sender's hybrid logical clock stamp, or -1 if it has none. Only nodes stamp their messages.
+    public long hlc() {
+        parseHeader();
+        return hlc;
+    }
+
+    private void parseHeader() {
+        if (headerParsed) {
+            return;
+        }
+        if (raw == null) {
+            final JsonObject b = body;
+            type = b.getString("type", null);
+            msgId = b.getLong("msg_id", MessageCodec.NONE);
+            inReplyTo = b.getLong("in_reply_to", MessageCodec.NONE);
+            hlc = b.getLong("hlc", MessageCodec.NONE);
+        } else {
+            final int[] spans = new int[4];
+            int i = bodyStart + 1;
+            while ((i = MessageCodec.nextMember(raw, i, bodyEnd, spans)) != -1) {
+                if (MessageCodec.keyEquals(raw, spans[0], spans[1], MessageCodec.TYPE)) {
+                    type = MessageCodec.readType(raw, spans[2], spans[3]);
+                } else if (MessageCodec.keyEquals(raw, spans[0], spans[1], MessageCodec.MSG_ID)) {
+                    msgId = MessageCodec.readLong(raw, spans[2], spans[3]);
+                } else if (MessageCodec.keyEquals(raw, spans[0], spans[1], MessageCodec.IN_REPLY_TO)) {
+                    inReplyTo = MessageCodec.readLong(raw, spans[2], spans[3]);
+                } else if (MessageCodec.keyEquals(raw, spans[0], spans[1], MessageCodec.HLC)) {
+                    hlc = MessageCodec.readLong(raw, spans[2], spans[3]);
+                }
+            }
+        }
+        headerParsed = true;
     }
 
     public String toString() {
-        return "(msg " + src + " " + dest + " " + body + ")";
+        final String b = body == null
+                ? new String(raw, bodyStart, bodyEnd - bodyStart, StandardCharsets.UTF_8)
+                : body.toString();
+        return "(msg " + src + " " + dest + " " + b + ")";
     }
 
     @Override
@@ -37,6 +155,6 @@ public class Message implements IJson {
         return Json.object()
                 .add("src", src)
                 .add("dest", dest)
-                .add("body", body);
+                .add("body", body());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,329 @@
+package com.the123saurav.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+// Reads and writes the Maelstrom envelope without going through a JSON DOM.
+// On the way in we only walk the top level of the envelope and of the body, recording where values
+// start and end, so routing fields can be pulled out of the raw bytes and the body is parsed only
+// if a handler asks for it. On the way out the envelope and the body members are written straight
+// into a StringBuilder with msg_id/in_reply_to/hlc spliced in, instead of merging into a fresh JsonObject.
+public final class MessageCodec {
+    // Marks a msg_id or in_reply_to which is absent.
+    public static final long NONE = -1;
+
+    static final byte[] SRC = ascii("src");
+    static final byte[] DEST = ascii("dest");
+    static final byte[] BODY = ascii("body");
+    static final byte[] TYPE = ascii("type");
+    static final byte[] MSG_ID = ascii("msg_id");
+    static final byte[] IN_REPLY_TO = ascii("in_reply_to");
+    static final byte[] HLC = ascii("hlc");
+
+    // Message types seen by interning, each with its quoted form on the wire. Reading a type that is in
+    // here hands back the one shared String instead of allocating a new one per message, which also
+    // lets handler lookups hit String.equals' identity check. Copied on write: types are registered
+    // at startup and looked up on every message.
+    private record KnownType(byte[] bytes, String type) {
+    }
+
+    private static volatile KnownType[] knownTypes = new KnownType[0];
+
+    static {
+        intern("init");
+        intern("init_ok");
+        intern("error");
+    }
+
+    private MessageCodec() {
+    }
+
+    // The canonical instance of a message type, registering it if it is new.
+    public static synchronized String intern(String type) {
+        for (KnownType k : knownTypes) {
+            if (k.type.equals(type)) {
+                return k.type;
+            }
+        }
+        final String canonical = type.intern();
+        final KnownType[] grown = Arrays.copyOf(knownTypes, knownTypes.length + 1);
+        grown[grown.length - 1] = new KnownType(canonical.getBytes(StandardCharsets.UTF_8), canonical);
+        knownTypes = grown;
+        return canonical;
+    }
+
+    // Reading ////////////////////////////////////////////////////////////////
+
+    // Index of the first non-whitespace byte at or after i.
+    static int skipWhitespace(byte[] b, int i, int end) {
+        while (i < end && (b[i] == ' ' || b[i] == '\t' || b[i] == '\n' || b[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    // Index just past the value starting at i.
+    static int skipValue(byte[] b, int i, int end) {
+        final byte c = b[i];
+        if (c == '"') {
+            return skipString(b, i, end);
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            while (i < end) {
+                final byte d = b[i];
+                if (d == '"') {
+                    i = skipString(b, i, end);
+                    continue;
+                }
+                if (d == '{' || d == '[') {
+                    depth++;
+                } else if (d == '}' || d == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        return i + 1;
+                    }
+                }
+                i++;
+            }
+            throw Error.malformedRequest("unterminated json value");
+        }
+        // Number, true, false or null
+        while (i < end && b[i] != ',' && b[i] != '}' && b[i] != ']'
+                && b[i] != ' ' && b[i] != '\t' && b[i] != '\n' && b[i] != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipString(byte[] b, int i, int end) {
+        i++;
+        while (i < end) {
+            final byte c = b[i];
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '"') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        throw Error.malformedRequest("unterminated json string");
+    }
+
+    // Find the next member of the object being walked from i, which is either just after the opening
+    // brace or just after the previous member. Fills `spans` with key start/end (without quotes) and
+    // value start/end, and returns where to continue from, or -1 once the object is closed.
+    static int nextMember(byte[] b, int i, int end, int[] spans) {
+        i = skipWhitespace(b, i, end);
+        if (i < end && b[i] == ',') {
+            i = skipWhitespace(b, i + 1, end);
+        }
+        if (i >= end || b[i] == '}') {
+            return -1;
+        }
+        if (b[i] != '"') {
+            throw Error.malformedRequest("expected a json object key");
+        }
+        final int keyEnd = skipString(b, i, end);
+        spans[0] = i + 1;
+        spans[1] = keyEnd - 1;
+        i = skipWhitespace(b, keyEnd, end);
+        if (i >= end || b[i] != ':') {
+            throw Error.malformedRequest("expected ':' in json object");
+        }
+        i = skipWhitespace(b, i + 1, end);
+        final int valueEnd = skipValue(b, i, end);
+        spans[2] = i;
+        spans[3] = valueEnd;
+        return valueEnd;
+    }
+
+    static boolean keyEquals(byte[] b, int start, int end, byte[] key) {
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (b[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Decode the string value spanning [start, end), quotes included. Returns null for a json null.
+    static String readString(byte[] b, int start, int end) {
+        if (b[start] != '"') {
+            return null;
+        }
+        for (int i = start + 1; i < end - 1; i++) {
+            if (b[i] == '\\') {
+                // Escapes are rare enough in envelopes to hand them off to the full parser.
+                return Json.parse(new String(b, start, end - start, StandardCharsets.UTF_8)).asString();
+            }
+        }
+        return new String(b, start + 1, end - start - 2, StandardCharsets.UTF_8);
+    }
+
+    // Decode a type value spanning [start, end), returning the interned instance if it is a known type.
+    static String readType(byte[] b, int start, int end) {
+        if (b[start] == '"') {
+            for (KnownType k : knownTypes) {
+                if (keyEquals(b, start + 1, end - 1, k.bytes)) {
+                    return k.type;
+                }
+            }
+        }
+        return readString(b, start, end);
+    }
+
+    // Decode the integer value spanning [start, end).
+    static long readLong(byte[] b, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && b[i] == '-') {
+            negative = true;
+            i++;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            final byte c = b[i];
+            if (c < '0' || c > '9') {
+                return (long) Double.parseDouble(new String(b, start, end - start, StandardCharsets.US_ASCII));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    // Writing ////////////////////////////////////////////////////////////////
+
+    // Write a full envelope. msgId, inReplyTo and the hybrid logical clock stamp are spliced into the
+    // body unless NONE, replacing any existing member of the same name. An hlc member already in the
+    // body is always dropped: it belongs to whoever sent the body to us, e.g. a relayed reply.
+    public static void writeEnvelope(StringBuilder sb, String src, String dest, JsonObject body, long msgId, long inReplyTo,
+                                     long hlc) {
+        sb.append("{\"src\":");
+        writeString(sb, src);
+        sb.append(",\"dest\":");
+        writeString(sb, dest);
+        sb.append(",\"body\":{");
+        boolean first = true;
+        for (JsonObject.Member member : body) {
+            final String name = member.getName();
+            if ((msgId != NONE && name.equals("msg_id")) || (inReplyTo != NONE && name.equals("in_reply_to"))
+                    || name.equals("hlc")) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            writeString(sb, name);
+            sb.append(':');
+            writeValue(sb, member.getValue());
+        }
+        if (inReplyTo != NONE) {
+            sb.append(first ? "" : ",").append("\"in_reply_to\":").append(inReplyTo);
+            first = false;
+        }
+        if (msgId != NONE) {
+            sb.append(first ? "" : ",").append("\"msg_id\":").append(msgId);
+            first = false;
+        }
+        if (hlc != NONE) {
+            sb.append(first ? "" : ",").append("\"hlc\":").append(hlc);
+        }
+        sb.append("}}");
+    }
+
+    // Write an envelope around body members which were serialized ahead of time, e.g. a ReplyTemplate.
+    public static void writeEnvelope(StringBuilder sb, String src, String dest, CharSequence members, long msgId, long inReplyTo,
+                                     long hlc) {
+        sb.append("{\"src\":");
+        writeString(sb, src);
+        sb.append(",\"dest\":");
+        writeString(sb, dest);
+        sb.append(",\"body\":{").append(members);
+        boolean first = members.length() == 0;
+        if (inReplyTo != NONE) {
+            sb.append(first ? "" : ",").append("\"in_reply_to\":").append(inReplyTo);
+            first = false;
+        }
+        if (msgId != NONE) {
+            sb.append(first ? "" : ",").append("\"msg_id\":").append(msgId);
+            first = false;
+        }
+        if (hlc != NONE) {
+            sb.append(first ? "" : ",").append("\"hlc\":").append(hlc);
+        }
+        sb.append("}}");
+    }
+
+    public static void writeValue(StringBuilder sb, JsonValue value) {
+        if (value.isString()) {
+            writeString(sb, value.asString());
+        } else if (value.isArray()) {
+            final JsonArray array = value.asArray();
+            sb.append('[');
+            for (int i = 0; i < array.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                writeValue(sb, array.get(i));
+            }
+            sb.append(']');
+        } else if (value.isObject()) {
+            sb.append('{');
+            boolean first = true;
+            for (JsonObject.Member member : value.asObject()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                writeString(sb, member.getName());
+                sb.append(':');
+                writeValue(sb, member.getValue());
+            }
+            sb.append('}');
+        } else {
+            // Numbers keep their source text, literals are constants; neither allocates here.
+            sb.append(value.toString());
+        }
+    }
+
+    public static void writeString(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
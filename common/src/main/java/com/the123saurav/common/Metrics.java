@@ -0,0 +1,47 @@
+package com.the123saurav.common;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import com.eclipsesource.json.JsonObject;
+
+// A node's counters, gauges and histograms, by name.
+// Counters and histograms are created on first use and are safe to update from any thread; gauges
+// are read from a supplier whenever a snapshot is taken. Hot paths should look a metric up once and
+// keep the reference rather than going through the map per event.
+public class Metrics {
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // Everything, with names sorted so snapshots diff cleanly.
+    public JsonObject toJson() {
+        final JsonObject c = new JsonObject();
+        new TreeMap<>(counters).forEach((name, v) -> c.add(name, v.sum()));
+        final JsonObject g = new JsonObject();
+        for (Map.Entry<String, LongSupplier> e : new TreeMap<>(gauges).entrySet()) {
+            g.add(e.getKey(), e.getValue().getAsLong());
+        }
+        final JsonObject h = new JsonObject();
+        new TreeMap<>(histograms).forEach((name, v) -> h.add(name, v.toJson()));
+        return new JsonObject()
+                .add("counters", c)
+                .add("gauges", g)
+                .add("histograms", h);
+    }
+}
@@ -7,14 +7,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.random.RandomGenerator;
 
 import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
 
-import static com.the123saurav.common.Logger.log;
-
 // This class provides common support functions for writing Maelstrom nodes. It includes an asynchronous RPC facility, and uses an executor to launch handlers.
 public abstract class Node {
     // Our local node ID.
@@ -24,70 +25,193 @@ public abstract class Node {
     // All node IDs
     protected List<String> nodeIds = new ArrayList<String>();
 
-    // A map of RPC request message IDs we've sent to CompletableFutures which will
+    // RPC request message IDs we've sent, mapped to CompletableFutures which will
     // receive the response bodies.
-    protected final Map<Long, CompletableFuture<JsonObject>> rpcs = new HashMap<Long, CompletableFuture<JsonObject>>();
-
-    static final class DaemonThreadFactory implements ThreadFactory {
-        public Thread newThread(Runnable r) {
-            Thread t = new Thread();
-            t.setDaemon(true);
-            t.setName("TimeoutDetector");
-            return t;
-        }
-    }
-    protected final ScheduledThreadPoolExecutor timeoutExecutor = new ScheduledThreadPoolExecutor(
-            1000, Thread.ofVirtual().factory());
+    protected final RpcTable rpcs = new RpcTable();
+
+    // Round trip estimates per peer, which set the timeout of RPCs that don't specify one.
+    protected final ConcurrentHashMap<String, RttEstimator> peers = new ConcurrentHashMap<>();
+
+    // Time, random numbers and background threads come from the system unless a harness swaps them out
+    // with runOn() before init.
+    protected Clock clock = Clock.SYSTEM;
+    private RandomGenerator random = null;
+    private Executor executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Drives RPC timeouts and periodic work: one ticker thread with 1ms resolution, tasks run on virtual threads.
+    private TimerWheel timer = new TimerWheel(1, TimeUnit.MILLISECONDS, 1024, executor);
 
     // Our next message ID to generate
-    public long nextMessageId = 0;
+    public final AtomicLong nextMessageId = new AtomicLong();
+
+    // Stamped on every message to another node and advanced by every stamp we receive, for handlers
+    // that need causally ordered timestamps. Stamps more than hlc.max.offset.ms (500) ahead of our
+    // clock are clamped to it.
+    protected final HybridLogicalClock hlc = new HybridLogicalClock(() -> clock.currentTimeMillis(),
+            Long.getLong("hlc.max.offset.ms", 500));
+
+    // Where outbound messages go, stdout unless a harness swaps it out.
+    protected LineWriter output = OutputWriter.stdout();
+
+    private static final ReplyTemplate INIT_OK = ReplyTemplate.ofType("init_ok");
+
+    // Request handlers by message type. Types are interned in the codec, so a lookup for a type read
+    // off the wire compares by identity. Filled in from subclass constructors and only read after.
+    private final Map<String, Consumer<Message>> handlers = new HashMap<>();
+
+    // Counters, gauges and histograms for this node, served by the metrics request and dumped to the
+    // log every metrics.dump.ms if that is set.
+    protected final Metrics metrics = new Metrics();
+
+    // Message count and handler latency in microseconds per message type, keyed by the interned type.
+    private record TypeMetrics(LongAdder count, Histogram latencyUs) {
+    }
+
+    private final ConcurrentHashMap<String, TypeMetrics> typeMetrics = new ConcurrentHashMap<>();
+    private final LongAdder rpcsSent = metrics.counter("rpc.sent");
+    private final LongAdder rpcTimeouts = metrics.counter("rpc.timeouts");
+    private final LongAdder rpcErrors = metrics.counter("rpc.errors");
+    private final LongAdder hlcClamped = metrics.counter("hlc.clamped");
+    private static final Logger.RateLimit HLC_LOG = new Logger.RateLimit(1);
 
     public Node() {
+        metrics.gauge("rpc.in_flight", rpcs::size);
+        on("metrics", this::handleMetrics);
     }
 
     // Generate a new message ID
     public long newMessageId() {
-        final long id = nextMessageId;
-        nextMessageId++;
-        return id;
+        return nextMessageId.getAndIncrement();
+    }
+
+    public void setOutput(LineWriter output) {
+        this.output = output;
+    }
+
+    // Run on a harness's clock, random numbers and executor instead of the system's, e.g. the Simulator's
+    // virtual ones. The returned timer wheel has no ticker of its own: the harness advances it as its
+    // clock moves.
+    public TimerWheel runOn(Clock clock, RandomGenerator random, Executor executor) {
+        this.clock = clock;
+        this.random = random;
+        this.executor = executor;
+        timer.stop();
+        timer = new TimerWheel(1, TimeUnit.MILLISECONDS, 1024, executor, clock);
+        return timer;
+    }
+
+    // Run a task off the calling thread.
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    // For protocol decisions like election timeouts and backoff, seeded by the harness if there is one.
+    protected RandomGenerator random() {
+        return random != null ? random : ThreadLocalRandom.current();
     }
 
-    // Log a message to stderr.
+    // Run a task once after delayMs.
+    public TimerWheel.Timeout schedule(Runnable task, long delayMs) {
+        return timer.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Run a task every periodMs until the returned timeout is cancelled.
+    public TimerWheel.Timeout schedulePeriodic(Runnable task, long periodMs) {
+        return timer.schedulePeriodic(task, periodMs, TimeUnit.MILLISECONDS);
+    }
 
     // Sending messages //////////////////////////////////////////////////////
 
     // Send a message to stdout
     public void send(final Message message) {
 //        log("Sending  " + message.toJson());
-        System.out.println(message.toJson());
-//        System.out.flush();
+        final StringBuilder sb = new StringBuilder(128);
+        MessageCodec.writeEnvelope(sb, message.src, message.dest, message.body(), MessageCodec.NONE, MessageCodec.NONE,
+                stamp(message.dest));
+        output.write(sb);
     }
 
     // Send a message to a specific node. Automatically assigns a message ID if one
     // is not set.
     public void send(String dest, JsonObject body) {
-        if (body.getLong("msg_id", -1) == -1) {
-            body = Json.object().merge(body).set("msg_id", newMessageId());
+        send(dest, body, MessageCodec.NONE, MessageCodec.NONE);
+    }
+
+    // Write a body to dest with msg_id and in_reply_to spliced in, without copying the body.
+    // A message ID is assigned if neither msgId nor the body carries one.
+    protected void send(String dest, JsonObject body, long msgId, long inReplyTo) {
+        if (msgId == MessageCodec.NONE && body.getLong("msg_id", MessageCodec.NONE) == MessageCodec.NONE) {
+            msgId = newMessageId();
         }
-        send(new Message(nodeId, dest, body));
+        final StringBuilder sb = new StringBuilder(128);
+        MessageCodec.writeEnvelope(sb, nodeId, dest, body, msgId, inReplyTo, stamp(dest));
+        output.write(sb);
+    }
+
+    // A clock stamp for messages to other nodes. Clients get plain Maelstrom bodies.
+    private long stamp(String dest) {
+        return dest != null && dest.startsWith("n") ? hlc.now() : MessageCodec.NONE;
+    }
+
+    public RttEstimator peer(String id) {
+        return peers.computeIfAbsent(id, k -> new RttEstimator(clock));
     }
 
     // Send an RPC request to another node. Returns a CompletableFuture which will
-    // be delivered the response body when it arrives.
+    // be delivered the response body when it arrives. Times out after the peer's current
+    // retransmission timeout, derived from the round trips we've measured to it.
     public CompletableFuture<JsonObject> rpc(String dest, JsonObject request) {
-        final CompletableFuture<JsonObject> f = new CompletableFuture<JsonObject>();
+        return rpc(dest, request, peer(dest).timeoutMs());
+    }
+
+    // Send an RPC request which completes with a timeout Error, and is dropped from the
+    // table, if no reply arrives within timeoutMs.
+    public CompletableFuture<JsonObject> rpc(String dest, JsonObject request, long timeoutMs) {
         final long id = newMessageId();
-        rpcs.put(id, f);
+        final CompletableFuture<JsonObject> f = track(dest, id, timeoutMs);
+        send(dest, request, id, MessageCodec.NONE);
+        return f;
+    }
 
-        send(dest, Json.object().merge(request).set("msg_id", id));
+    // Send an RPC request whose body is already serialized: its members, without the surrounding
+    // braces. For bulk payloads which would be wasteful to build as a JsonObject.
+    public CompletableFuture<JsonObject> rpcSerialized(String dest, CharSequence members) {
+        final long id = newMessageId();
+        final CompletableFuture<JsonObject> f = track(dest, id, peer(dest).timeoutMs());
+        final StringBuilder sb = new StringBuilder(members.length() + 96);
+        MessageCodec.writeEnvelope(sb, nodeId, dest, members, id, MessageCodec.NONE, stamp(dest));
+        output.write(sb);
+        return f;
+    }
+
+    // Register an outgoing request, time it out after timeoutMs and feed the outcome into the
+    // peer's round trip estimate.
+    private CompletableFuture<JsonObject> track(String dest, long id, long timeoutMs) {
+        final CompletableFuture<JsonObject> f = rpcs.register(id);
+        final TimerWheel.Timeout timeout = schedule(() -> {
+            rpcs.fail(id, Error.timeout("RPC " + id + " to " + dest + " timed out after " + timeoutMs + " ms"));
+        }, timeoutMs);
+        final long sentNanos = clock.nanoTime();
+        f.whenComplete((body, e) -> {
+            // Take the timeout off the wheel as soon as the reply is in.
+            timeout.cancel();
+            final RttEstimator rtt = peer(dest);
+            if (e == null) {
+                rtt.sample((clock.nanoTime() - sentNanos) / 1e6);
+            } else if (((Error) e).code == 0) {
+                rtt.timedOut();
+                rpcTimeouts.increment();
+            } else {
+                rpcErrors.increment();
+            }
+        });
+        rpcsSent.increment();
         return f;
     }
 
     // Reply to a specific request message with a JsonObject body.
     public void reply(Message request, JsonObject body) {
-        final Long msg_id = request.body.getLong("msg_id", -1);
-        final JsonObject body2 = Json.object().merge(body).set("in_reply_to", msg_id);
-        send(request.src, body2);
+        send(request.src, body, MessageCodec.NONE, request.msgId());
     }
 
     // Reply to a message with a Json-coercable object as the body.
@@ -95,65 +219,105 @@ public abstract class Node {
         reply(request, body.toJson().asObject());
     }
 
+    // Reply with a constant body, serialized once up front.
+    public void reply(Message request, ReplyTemplate template) {
+        replySerialized(request, template.members);
+    }
+
+    // Reply with a body which is already serialized: its members, without the surrounding braces.
+    protected void replySerialized(Message request, CharSequence members) {
+        final StringBuilder sb = new StringBuilder(members.length() + 96);
+        MessageCodec.writeEnvelope(sb, nodeId, request.src, members, newMessageId(), request.msgId(), stamp(request.src));
+        output.write(sb);
+    }
+
     // Handlers ////////////////////////////////////////////////////////////
 
     // Handle an init message, setting up our state.
     protected void handleInit(Message request) {
-        this.nodeId = request.body.getString("node_id", null);
+        this.nodeId = request.body().getString("node_id", null);
         this.nodeIdNumber = Long.parseLong(this.nodeId.split("n")[1]);
-        for (JsonValue id : request.body.get("node_ids").asArray()) {
+        for (JsonValue id : request.body().get("node_ids").asArray()) {
             this.nodeIds.add(id.asString());
         }
-        log(String.format("I am %s", nodeIdNumber));
+        Logger.info("I am {}", nodeIdNumber);
+
+        final long dumpMs = Long.getLong("metrics.dump.ms", 0);
+        if (dumpMs > 0) {
+            schedulePeriodic(() -> Logger.info("Metrics {}", metrics.toJson()), dumpMs);
+        }
+    }
+
+    private void handleMetrics(Message request) {
+        reply(request, Json.object()
+                .add("type", "metrics_ok")
+                .add("metrics", metrics.toJson()));
     }
 
     // Handle a reply to an RPC request we issued.
     public void handleReply(Message reply) {
-        final JsonObject body = reply.body;
-        final long in_reply_to = body.getLong("in_reply_to", -1);
-        final CompletableFuture<JsonObject> f = rpcs.get(in_reply_to);
-        if (f == null) {
-            // Handler already triggered?
-            return;
-        }
-        rpcs.remove(in_reply_to);
-        if (body.getString("type", null).equals("error")) {
+        final long in_reply_to = reply.inReplyTo();
+        final JsonObject body = reply.body();
+        // If the request already timed out the table has forgotten it and the reply is dropped.
+        if (reply.type().equals("error")) {
             // If we have an error, deliver an exception
             final long code = body.getLong("code", -1);
             final String text = body.getString("text", null);
-            f.completeExceptionally(new Error(code, text));
+            rpcs.fail(in_reply_to, new Error(code, text));
         } else {
             // Normal completion
-            f.complete(body);
+            rpcs.complete(in_reply_to, body);
         }
     }
 
+    // Register the handler for requests of the given type.
+    protected void on(String type, Consumer<Message> handler) {
+        handlers.put(MessageCodec.intern(type), handler);
+    }
+
     // Handle a message by looking up a request handler by the type of the message's
     // body, and calling it with the message.
     public void handleRequest(Message request) {
-        final String type = request.body.getString("type", null);
+        final String type = request.type();
         // You don't have to register a custom Init handler.
         if (type.equals("init")) {
             return;
         }
-        handle(request);
+        final Consumer<Message> handler = handlers.get(type);
+        if (handler != null) {
+            handler.accept(request);
+        } else {
+            handle(request);
+        }
     }
 
-    protected abstract void handle(Message message);
+    // Called for requests with no registered handler.
+    protected void handle(Message message) {
+        throw Error.notSupported("unhandled message type: " + message.type());
+    }
 
     // Handles a parsed message from STDIN
     public void handleMessage(Message message) {
-        final JsonObject body = message.body;
-        final String type = body.getString("type", null);
-        final long in_reply_to = body.getLong("in_reply_to", -1);
-        log("Handling " + message);
+        final String type = message.type();
+        final long in_reply_to = message.inReplyTo();
+        Logger.debug("Handling {}", message);
+        if (message.src != null && message.src.startsWith("n")) {
+            peer(message.src).heardFrom();
+            final long stamp = message.hlc();
+            if (stamp != MessageCodec.NONE && !hlc.observe(stamp)) {
+                hlcClamped.increment();
+                Logger.warn(HLC_LOG, "Clock stamp {} ms ahead of ours from {}, clamped",
+                        HybridLogicalClock.physicalMs(stamp) - clock.currentTimeMillis(), message.src);
+            }
+        }
+        final long startNanos = System.nanoTime();
 
         try {
             // Init messages are special: we always handle them ourselves in addition to
             // invoking any registered callback.
             if (type.equals("init")) {
                 handleInit(message);
-                reply(message, Json.object().add("type", "init_ok"));
+                reply(message, INIT_OK);
             } else if (in_reply_to != -1) {
                 // A reply to an RPC we issued.
                 handleReply(message);
@@ -163,7 +327,7 @@ public abstract class Node {
             }
         } catch (Error e) {
             // Send a message back to the client
-            log(e.toString());
+            Logger.warn("Request failed: {}", e);
             reply(message, e);
         } catch (Exception e) {
             // Send a generic crash error
@@ -172,8 +336,15 @@ public abstract class Node {
             e.printStackTrace(pw);
             String text = "Unexpected exception handling " +
                     message + ": " + e + "\n" + sw;
-            log(text);
+            Logger.error("{}", text);
             reply(message, Error.crash(text));
+        } finally {
+            if (type != null) {
+                final TypeMetrics m = typeMetrics.computeIfAbsent(type, t -> new TypeMetrics(
+                        metrics.counter("messages." + t), metrics.histogram("handler_us." + t)));
+                m.count.increment();
+                m.latencyUs.record((System.nanoTime() - startNanos) / 1000);
+            }
         }
     }
 }
\ No newline at end of file
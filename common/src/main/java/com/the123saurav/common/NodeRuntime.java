@@ -0,0 +1,105 @@
+package com.the123saurav.common;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+// The main loop shared by every node: read stdin, parse, dispatch.
+// The reader pulls stdin through a FileChannel into one reusable direct buffer and cuts it into lines
+// as byte arrays, never building a String. Each line's envelope and routing fields are scanned right
+// there on the reader thread, which is a few hundred nanoseconds and cheaper than handing the line to
+// another thread, and the message goes straight to its Scheduler lane. The body is parsed later, by
+// whichever handler thread first needs it. Messages reach the Scheduler in arrival order, so what one
+// sender sent is never reordered.
+public class NodeRuntime {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Scheduler scheduler;
+    private final ReadableByteChannel input;
+
+    public NodeRuntime(Node node, ReadableByteChannel input) {
+        this.scheduler = new Scheduler(node);
+        this.input = input;
+    }
+
+    // Run `node` against stdin until it closes. Exits the process on anything unexpected.
+    public static void run(Node node) {
+        new NodeRuntime(node, new FileInputStream(FileDescriptor.in).getChannel()).run();
+    }
+
+    public void run() {
+        try {
+            read();
+            Logger.info("stdin closed, shutting down");
+            scheduler.awaitIdle(5_000);
+            OutputWriter.stdout().drain();
+        } catch (Throwable e) {
+            fatal(e);
+        }
+        Logger.flush();
+    }
+
+    private void read() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        // The start of a line which ran past the end of the buffer.
+        byte[] partial = new byte[0];
+        int partialLength = 0;
+        while (input.read(buffer) != -1) {
+            buffer.flip();
+            int start = 0;
+            final int end = buffer.limit();
+            for (int i = 0; i < end; i++) {
+                if (buffer.get(i) != '\n') {
+                    continue;
+                }
+                final byte[] line = new byte[partialLength + i - start];
+                System.arraycopy(partial, 0, line, 0, partialLength);
+                buffer.get(start, line, partialLength, i - start);
+                partialLength = 0;
+                start = i + 1;
+                dispatch(line);
+            }
+            final int rest = end - start;
+            if (partialLength + rest > partial.length) {
+                partial = Arrays.copyOf(partial, Math.max(2 * partial.length, partialLength + rest));
+            }
+            buffer.get(start, partial, partialLength, rest);
+            partialLength += rest;
+            buffer.clear();
+        }
+        if (partialLength > 0) {
+            dispatch(Arrays.copyOf(partial, partialLength));
+        }
+    }
+
+    private void dispatch(byte[] line) {
+        int length = line.length;
+        while (length > 0 && (line[length - 1] == '\r' || line[length - 1] == ' ')) {
+            length--;
+        }
+        if (length == 0) {
+            return;
+        }
+        final byte[] trimmed = length == line.length ? line : Arrays.copyOf(line, length);
+        final Message message;
+        try {
+            message = new Message(trimmed);
+            // Scan the routing fields here too, the Scheduler needs them.
+            message.inReplyTo();
+        } catch (RuntimeException e) {
+            // We can't reply to what we couldn't parse.
+            Logger.warn("Dropping unparseable message: {}", e);
+            return;
+        }
+        scheduler.submit(message);
+    }
+
+    private static void fatal(Throwable e) {
+        Logger.error("Fatal error! {}", e);
+        Logger.flush();
+        System.exit(1);
+    }
+}
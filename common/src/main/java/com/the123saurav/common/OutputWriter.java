@@ -0,0 +1,141 @@
+package com.the123saurav.common;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+
+// Batches lines from many handler threads onto a single writer thread.
+// Producers enqueue onto a lock-free queue and only block once `capacity` lines are waiting,
+// which pushes back on handlers instead of growing without bound. The writer copies as many lines
+// as it can into one large buffer per write call, and flushes as soon as the queue runs dry so
+// a lone reply at low load is not held back waiting for company.
+public class OutputWriter implements LineWriter {
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private static OutputWriter stdout;
+
+    private final OutputStream out;
+    private final ConcurrentLinkedQueue<CharSequence> queue = new ConcurrentLinkedQueue<>();
+    private final Semaphore slots;
+    private final byte[] buffer;
+    private int position = 0;
+
+    private final Thread writer;
+    private volatile boolean idle = false;
+
+    public OutputWriter(OutputStream out, int capacity, int bufferSize) {
+        this.out = out;
+        this.slots = new Semaphore(capacity);
+        this.buffer = new byte[bufferSize];
+        this.writer = new Thread(this::run, "OutputWriter");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // The process wide writer for stdout. We write to the file descriptor directly, System.out would
+    // add its own lock and buffering on top of ours.
+    public static synchronized OutputWriter stdout() {
+        if (stdout == null) {
+            stdout = new OutputWriter(new FileOutputStream(FileDescriptor.out), DEFAULT_CAPACITY, DEFAULT_BUFFER_SIZE);
+        }
+        return stdout;
+    }
+
+    @Override
+    public void write(CharSequence line) {
+        slots.acquireUninterruptibly();
+        queue.offer(line);
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    // Wait, up to a second, for everything written so far to reach the stream, e.g. before exiting.
+    public void drain() {
+        final long deadline = System.nanoTime() + 1_000_000_000L;
+        while (!(queue.isEmpty() && idle) && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                CharSequence line = queue.poll();
+                if (line == null) {
+                    // Nothing more queued, push out whatever we have before going to sleep.
+                    flush();
+                    idle = true;
+                    if (queue.isEmpty()) {
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                    continue;
+                }
+                try {
+                    append(line);
+                } finally {
+                    // The line is off the queue either way, a failed write must not cost its producer's slot.
+                    slots.release();
+                }
+            } catch (Throwable e) {
+                Logger.error("Output writer failed: {}", e);
+            }
+        }
+    }
+
+    private void append(CharSequence line) throws IOException {
+        final int length = line.length();
+        // Messages are almost always ASCII, copy those char by char and let String deal with the rest.
+        if (length + 1 > buffer.length - position) {
+            flush();
+        }
+        if (length + 1 <= buffer.length - position) {
+            int p = position;
+            for (int i = 0; i < length; i++) {
+                final char c = line.charAt(i);
+                if (c >= 0x80) {
+                    appendEncoded(line);
+                    return;
+                }
+                buffer[p++] = (byte) c;
+            }
+            buffer[p++] = '\n';
+            position = p;
+        } else {
+            appendEncoded(line);
+        }
+    }
+
+    private void appendEncoded(CharSequence line) throws IOException {
+        final byte[] bytes = (line.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > buffer.length - position) {
+            flush();
+        }
+        if (bytes.length > buffer.length) {
+            out.write(bytes);
+            return;
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    // A batch whose write fails is dropped, otherwise every later flush would retry it and fail again,
+    // leaving the writer spinning instead of parking.
+    private void flush() throws IOException {
+        if (position > 0) {
+            try {
+                out.write(buffer, 0, position);
+            } finally {
+                position = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.the123saurav.common;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonValue;
+
+// A compact form for long arrays that nodes send each other: one base64 string in place of a JSON
+// array of decimal numbers.
+// The string holds the count, then each value as its difference from the one before, zigzag encoded so
+// small negative differences stay small, as a little-endian base-128 varint. Sorted runs of nearby
+// values, like a gossip batch or a list of chunk keys, come down to one or two bytes each before base64;
+// values with no pattern, like hashes, still take at most ten. The receiver parses one JSON string
+// instead of a number per value.
+// Clients never see this form, and read() accepts either form so peers can switch over one at a time.
+public final class PackedLongs {
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+    private PackedLongs() {
+    }
+
+    // Encode values[0, n).
+    public static String encode(long[] values, int n) {
+        final byte[] out = new byte[10 * (n + 1)];
+        int pos = putVarint(out, 0, n);
+        long prev = 0;
+        for (int i = 0; i < n; i++) {
+            final long delta = values[i] - prev;
+            pos = putVarint(out, pos, (delta << 1) ^ (delta >> 63));
+            prev = values[i];
+        }
+        return ENCODER.encodeToString(Arrays.copyOf(out, pos));
+    }
+
+    public static long[] decode(String packed) {
+        final byte[] in;
+        try {
+            in = DECODER.decode(packed);
+        } catch (IllegalArgumentException e) {
+            throw Error.malformedRequest("packed values are not base64");
+        }
+        final int[] pos = new int[1];
+        final long n = getVarint(in, pos);
+        // Every value takes at least a byte, so a count larger than what's left is a corrupt header.
+        if (n < 0 || n > in.length - pos[0]) {
+            throw Error.malformedRequest("packed values are truncated");
+        }
+        final long[] values = new long[(int) n];
+        long prev = 0;
+        for (int i = 0; i < values.length; i++) {
+            final long zigzag = getVarint(in, pos);
+            prev += (zigzag >>> 1) ^ -(zigzag & 1);
+            values[i] = prev;
+        }
+        return values;
+    }
+
+    // The values in a body member sent either as a packed string or as a plain JSON array.
+    public static long[] read(JsonValue value) {
+        if (value.isString()) {
+            return decode(value.asString());
+        }
+        final JsonArray array = value.asArray();
+        final long[] values = new long[array.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = array.get(i).asLong();
+        }
+        return values;
+    }
+
+    private static int putVarint(byte[] out, int pos, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[pos++] = (byte) v;
+        return pos;
+    }
+
+    private static long getVarint(byte[] in, int[] pos) {
+        int p = pos[0];
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (p >= in.length) {
+                throw Error.malformedRequest("packed values are truncated");
+            }
+            final byte b = in[p++];
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                pos[0] = p;
+                return v;
+            }
+        }
+        throw Error.malformedRequest("packed varint is too long");
+    }
+}
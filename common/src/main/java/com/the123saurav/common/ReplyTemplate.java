@@ -0,0 +1,25 @@
+package com.the123saurav.common;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+
+// A reply whose body never changes, such as an ack. The body is serialized once up front; sending it
+// only writes the envelope around it with dest, msg_id and in_reply_to spliced in, so acking costs
+// one StringBuilder and no JsonObject.
+public final class ReplyTemplate {
+    public final String type;
+    // The body's members, serialized, without the surrounding braces.
+    final String members;
+
+    public ReplyTemplate(JsonObject body) {
+        this.type = MessageCodec.intern(body.getString("type", null));
+        final StringBuilder sb = new StringBuilder();
+        MessageCodec.writeValue(sb, body);
+        this.members = sb.substring(1, sb.length() - 1);
+    }
+
+    // A body with nothing but a type, e.g. {"type": "broadcast_ok"}.
+    public static ReplyTemplate ofType(String type) {
+        return new ReplyTemplate(Json.object().add("type", type));
+    }
+}
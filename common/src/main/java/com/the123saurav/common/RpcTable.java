@@ -0,0 +1,35 @@
+package com.the123saurav.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.eclipsesource.json.JsonObject;
+
+// Correlates outstanding RPC requests with their replies, keyed by the request's message ID.
+// Every entry leaves the table exactly once: whoever removes it (reply, error or timeout) completes
+// the future, so a reply racing a timeout can never complete it twice or leave it behind.
+public class RpcTable {
+    private final ConcurrentHashMap<Long, CompletableFuture<JsonObject>> pending = new ConcurrentHashMap<>(1 << 16);
+
+    public CompletableFuture<JsonObject> register(long id) {
+        final CompletableFuture<JsonObject> f = new CompletableFuture<>();
+        pending.put(id, f);
+        return f;
+    }
+
+    // Deliver a reply body. Returns false if the request already completed or timed out.
+    public boolean complete(long id, JsonObject body) {
+        final CompletableFuture<JsonObject> f = pending.remove(id);
+        return f != null && f.complete(body);
+    }
+
+    public boolean fail(long id, Error error) {
+        final CompletableFuture<JsonObject> f = pending.remove(id);
+        return f != null && f.completeExceptionally(error);
+    }
+
+    // Number of requests still waiting on a reply.
+    public int size() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,65 @@
+package com.the123saurav.common;
+
+// Round trip time tracking for one peer, along the lines of TCP's retransmission timer (RFC 6298).
+// Each reply feeds a smoothed RTT and RTT variance, and the timeout is srtt + 4 * rttvar, clamped to
+// [MIN_RTO_MS, MAX_RTO_MS]. Every consecutive timeout doubles it, and the next good sample resets it.
+// Our RPC message IDs are never reused across retries, so every sample is unambiguous.
+public class RttEstimator {
+    public static final double MIN_RTO_MS = 5;
+    public static final double MAX_RTO_MS = 2000;
+    // Used until the first reply comes in.
+    public static final double INITIAL_RTO_MS = 50;
+
+    private double srtt = -1;
+    private double rttvar;
+    private double rto = INITIAL_RTO_MS;
+    private int backoff = 0;
+    private volatile long lastHeardMs = 0;
+    private final Clock clock;
+
+    public RttEstimator() {
+        this(Clock.SYSTEM);
+    }
+
+    public RttEstimator(Clock clock) {
+        this.clock = clock;
+    }
+
+    // Record a round trip of rttMs for a request that got a reply.
+    public synchronized void sample(double rttMs) {
+        if (srtt < 0) {
+            srtt = rttMs;
+            rttvar = rttMs / 2;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rttMs);
+            srtt = 0.875 * srtt + 0.125 * rttMs;
+        }
+        rto = Math.min(MAX_RTO_MS, Math.max(MIN_RTO_MS, srtt + 4 * rttvar));
+        backoff = 0;
+        heardFrom();
+    }
+
+    // A request timed out: back off the timeout until we hear from the peer again.
+    public synchronized void timedOut() {
+        if (backoff < 16) {
+            backoff++;
+        }
+    }
+
+    public synchronized long timeoutMs() {
+        return (long) Math.ceil(Math.min(MAX_RTO_MS, rto * (1L << backoff)));
+    }
+
+    public synchronized double srttMs() {
+        return srtt;
+    }
+
+    public void heardFrom() {
+        lastHeardMs = clock.currentTimeMillis();
+    }
+
+    // When we last got any message from the peer, 0 if never.
+    public long lastHeardMs() {
+        return lastHeardMs;
+    }
+}
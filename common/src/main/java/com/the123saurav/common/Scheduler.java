@@ -0,0 +1,143 @@
+package com.the123saurav.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Feeds inbound messages to a node with bounded concurrency, in order per source.
+// Each source gets a lane: a FIFO queue which at most one thread drains at a time, so two messages
+// from the same sender are always handled in the order they arrived. Lanes with work wait in a ready
+// queue for one of `concurrency` permits, and give theirs up after a handful of messages so a busy
+// sender can't starve the rest. A lane that drains empty is dropped, so a long run with many
+// short-lived clients doesn't keep one around per client it has ever seen.
+// Once `maxQueued` messages are waiting, new requests are refused with temporarily-unavailable rather
+// than queued; the client or the sending node's retry logic will try again later. Replies to our own
+// RPCs are never refused or queued behind requests: they only complete a future, and holding them back
+// would just turn into more timeouts and retries.
+public class Scheduler {
+    // Messages a lane handles before going back to the end of the ready queue.
+    private static final int LANE_BATCH = 32;
+
+    private final Node node;
+    private final Executor executor;
+    private final Semaphore permits;
+    private final int concurrency;
+    private final int maxQueued;
+
+    private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Lane> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder shed;
+
+    private static final class Lane {
+        final String src;
+        final ConcurrentLinkedQueue<Message> messages = new ConcurrentLinkedQueue<>();
+        // Set while the lane is in the ready queue or being drained.
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Lane(String src) {
+            this.src = src;
+        }
+    }
+
+    // Sized from scheduler.concurrency (2 x cores) and scheduler.queue.max (10000).
+    public Scheduler(Node node) {
+        this(node, Integer.getInteger("scheduler.concurrency", 2 * Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("scheduler.queue.max", 10_000));
+    }
+
+    public Scheduler(Node node, int concurrency, int maxQueued) {
+        this.node = node;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.permits = new Semaphore(concurrency);
+        this.concurrency = concurrency;
+        this.maxQueued = maxQueued;
+        this.shed = node.metrics.counter("scheduler.shed");
+        node.metrics.gauge("scheduler.queued", queued::get);
+        node.metrics.gauge("scheduler.lanes", lanes::size);
+    }
+
+    public void submit(Message message) {
+        if (message.inReplyTo() != MessageCodec.NONE) {
+            executor.execute(() -> node.handleMessage(message));
+            return;
+        }
+        if (queued.get() >= maxQueued && !"init".equals(message.type())) {
+            shed.increment();
+            node.reply(message, Error.temporarilyUnavailable("node overloaded, " + queued.get() + " messages queued"));
+            return;
+        }
+        queued.incrementAndGet();
+        // Offered under the map's lock for this source, so a drainer can't drop the lane in between.
+        final Lane lane = lanes.compute(String.valueOf(message.src), (src, l) -> {
+            if (l == null) {
+                l = new Lane(src);
+            }
+            l.messages.offer(message);
+            return l;
+        });
+        if (lane.scheduled.compareAndSet(false, true)) {
+            ready.offer(lane);
+            dispatch();
+        }
+    }
+
+    // Wait, up to timeoutMs, until every queued message has been handled.
+    public void awaitIdle(long timeoutMs) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        while ((queued.get() > 0 || permits.availablePermits() < concurrency) && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    // Start as many ready lanes as we have permits for.
+    private void dispatch() {
+        while (!ready.isEmpty() && permits.tryAcquire()) {
+            final Lane lane = ready.poll();
+            if (lane == null) {
+                // Someone else took it between our check and poll.
+                permits.release();
+                continue;
+            }
+            executor.execute(() -> drain(lane));
+        }
+    }
+
+    // Drop a lane with nothing left to do. Only while it is empty and unscheduled: a lane that's still
+    // being drained keeps its place, otherwise the source's next message would start a second lane that
+    // could run alongside it.
+    private void retire(Lane lane) {
+        lanes.computeIfPresent(lane.src, (src, l) ->
+                l == lane && l.messages.isEmpty() && !l.scheduled.get() ? null : l);
+    }
+
+    private void drain(Lane lane) {
+        try {
+            for (int i = 0; i < LANE_BATCH; i++) {
+                final Message message = lane.messages.poll();
+                if (message == null) {
+                    break;
+                }
+                queued.decrementAndGet();
+                node.handleMessage(message);
+            }
+        } finally {
+            permits.release();
+            lane.scheduled.set(false);
+            // Anything that arrived while we were finishing up is ours to reschedule.
+            if (!lane.messages.isEmpty()) {
+                if (lane.scheduled.compareAndSet(false, true)) {
+                    ready.offer(lane);
+                }
+            } else {
+                retire(lane);
+            }
+            dispatch();
+        }
+    }
+}
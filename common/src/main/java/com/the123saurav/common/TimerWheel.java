@@ -0,0 +1,229 @@
+package com.the123saurav.common;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// A hashed timer wheel: O(1) schedule and cancel, driven by one ticker thread.
+// Callers never touch the wheel itself. schedule() and cancel() push onto lock-free queues, and the
+// ticker moves new timeouts into their bucket, unlinks cancelled ones and fires expired ones once per
+// tick. Timeouts further out than one revolution wait in their bucket with a count of remaining rounds.
+// Expired tasks are handed to `executor` so a slow task can't hold up the clock.
+// A wheel built on a Clock of its own has no ticker: whoever owns the clock calls advance() as it
+// moves, which is how the Simulator runs node timers on virtual time.
+public class TimerWheel {
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final long tickNanos;
+    private final int mask;
+    private final Bucket[] wheel;
+    private final Executor executor;
+    private final Clock clock;
+    private final long startNanos;
+    private long tick = 0;
+    private volatile boolean running = true;
+
+    private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    // A handle to a scheduled task.
+    public final class Timeout {
+        private final Runnable task;
+        private final long periodTicks;
+        private long deadlineTicks;
+        private long remainingRounds;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // Owned by the ticker thread.
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineTicks, long periodTicks) {
+            this.task = task;
+            this.deadlineTicks = deadlineTicks;
+            this.periodTicks = periodTicks;
+        }
+
+        // Cancel the task if it hasn't fired yet. Periodic tasks stop repeating.
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            cancelled.offer(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+    }
+
+    // A doubly linked list of timeouts, only ever touched by the ticker.
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            t.prev = tail;
+            t.next = null;
+            if (tail == null) {
+                head = t;
+            } else {
+                tail.next = t;
+            }
+            tail = t;
+        }
+
+        void remove(Timeout t) {
+            if (t.prev == null) {
+                head = t.next;
+            } else {
+                t.prev.next = t.next;
+            }
+            if (t.next == null) {
+                tail = t.prev;
+            } else {
+                t.next.prev = t.prev;
+            }
+            t.bucket = null;
+            t.prev = null;
+            t.next = null;
+        }
+    }
+
+    public TimerWheel(long tickDuration, TimeUnit unit, int wheelSize, Executor executor) {
+        this(tickDuration, unit, wheelSize, executor, Clock.SYSTEM);
+        Thread ticker = new Thread(this::run, "TimerWheel");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    // A wheel on `clock` which only moves when advance() is called.
+    public TimerWheel(long tickDuration, TimeUnit unit, int wheelSize, Executor executor, Clock clock) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("wheel size must be a power of 2: " + wheelSize);
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.mask = wheelSize - 1;
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.executor = executor;
+        this.clock = clock;
+        this.startNanos = clock.nanoTime();
+    }
+
+    // Run task once after delay.
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        final Timeout t = new Timeout(task, deadline(unit.toNanos(delay)), 0);
+        scheduled.offer(t);
+        return t;
+    }
+
+    // Run task every period, starting one period from now, until cancelled.
+    public Timeout schedulePeriodic(Runnable task, long period, TimeUnit unit) {
+        final long periodTicks = Math.max(1, unit.toNanos(period) / tickNanos);
+        final Timeout t = new Timeout(task, deadline(unit.toNanos(period)), periodTicks);
+        scheduled.offer(t);
+        return t;
+    }
+
+    // The tick at which something delayNanos from now is due, rounded up so we never fire early.
+    private long deadline(long delayNanos) {
+        final long elapsed = clock.nanoTime() - startNanos + Math.max(0, delayNanos);
+        return (elapsed + tickNanos - 1) / tickNanos;
+    }
+
+    // Run every tick up to the clock's current time. Only for wheels without a ticker.
+    public void advance() {
+        while (startNanos + (tick + 1) * tickNanos <= clock.nanoTime()) {
+            tick();
+        }
+    }
+
+    // Stop the ticker thread. Pending tasks never fire.
+    public void stop() {
+        running = false;
+    }
+
+    private void run() {
+        while (running) {
+            final long sleepNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+                continue;
+            }
+            tick();
+        }
+    }
+
+    private void tick() {
+        tick++;
+        try {
+            removeCancelled();
+            transferScheduled();
+            expire(wheel[(int) (tick & mask)]);
+        } catch (Throwable e) {
+            Logger.error("Timer wheel tick failed: {}", e);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+            }
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout t;
+        while ((t = scheduled.poll()) != null) {
+            if (t.state.get() == PENDING) {
+                place(t);
+            }
+        }
+    }
+
+    private void place(Timeout t) {
+        // Anything already overdue goes in the current bucket and fires this tick.
+        final long due = Math.max(t.deadlineTicks, tick);
+        t.remainingRounds = (due - tick) / wheel.length;
+        wheel[(int) (due & mask)].add(t);
+    }
+
+    private void expire(Bucket bucket) {
+        Timeout t = bucket.head;
+        while (t != null) {
+            final Timeout next = t.next;
+            if (t.remainingRounds > 0) {
+                t.remainingRounds--;
+            } else {
+                bucket.remove(t);
+                fire(t);
+            }
+            t = next;
+        }
+    }
+
+    private void fire(Timeout t) {
+        if (t.periodTicks > 0) {
+            if (t.state.get() != PENDING) {
+                return;
+            }
+            t.deadlineTicks = tick + t.periodTicks;
+            place(t);
+        } else if (!t.state.compareAndSet(PENDING, EXPIRED)) {
+            return;
+        }
+        executor.execute(t.task);
+    }
+}
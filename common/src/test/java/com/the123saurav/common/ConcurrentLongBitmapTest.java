@@ -0,0 +1,157 @@
+package com.the123saurav.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class ConcurrentLongBitmapTest {
+    private static final long CHUNK_SIZE = 1L << ConcurrentLongBitmap.CHUNK_BITS;
+
+    @Test
+    public void addsEachValueOnce() {
+        final ConcurrentLongBitmap bitmap = new ConcurrentLongBitmap();
+        assertTrue(bitmap.add(5));
+        assertFalse(bitmap.add(5));
+        assertTrue(bitmap.add(6));
+        assertTrue(bitmap.contains(5));
+        assertFalse(bitmap.contains(7));
+        assertEquals(2, bitmap.size());
+    }
+
+    @Test
+    public void keepsValuesAcrossDirectoryGrowth() {
+        final ConcurrentLongBitmap bitmap = new ConcurrentLongBitmap();
+        // The directory starts at 16 chunks, so this grows it several times over.
+        for (long chunk = 0; chunk < 1000; chunk++) {
+            assertTrue(bitmap.add(chunk * CHUNK_SIZE + chunk % CHUNK_SIZE));
+        }
+        for (long chunk = 0; chunk < 1000; chunk++) {
+            assertTrue(bitmap.contains(chunk * CHUNK_SIZE + chunk % CHUNK_SIZE));
+            assertFalse(bitmap.contains(chunk * CHUNK_SIZE + chunk % CHUNK_SIZE + 1));
+        }
+        assertEquals(1000, bitmap.size());
+    }
+
+    @Test
+    public void installsRacingAGrowAreNotLost() throws Exception {
+        final int installers = 4;
+        final int lowChunks = 4096;
+        for (int round = 0; round < 20; round++) {
+            final ConcurrentLongBitmap bitmap = new ConcurrentLongBitmap();
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Thread> threads = new ArrayList<>();
+            // Installers create chunks in the low slots while the grower keeps doubling the directory,
+            // so some installs land in slots a grow is copying at that moment.
+            for (int t = 0; t < installers; t++) {
+                final int offset = t;
+                threads.add(new Thread(() -> {
+                    await(start);
+                    for (long chunk = offset; chunk < lowChunks; chunk += installers) {
+                        bitmap.add(chunk * CHUNK_SIZE + offset);
+                    }
+                }));
+            }
+            threads.add(new Thread(() -> {
+                await(start);
+                for (long chunk = lowChunks; chunk <= 1 << 18; chunk <<= 1) {
+                    bitmap.add(chunk * CHUNK_SIZE);
+                }
+            }));
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            for (long chunk = 0; chunk < lowChunks; chunk++) {
+                final long value = chunk * CHUNK_SIZE + chunk % installers;
+                if (!bitmap.contains(value)) {
+                    throw new AssertionError("round " + round + " lost " + value);
+                }
+            }
+            assertEquals(lowChunks + 7, bitmap.size());
+        }
+    }
+
+    @Test
+    public void holdsNegativeAndHugeValuesInAscendingOrder() {
+        final ConcurrentLongBitmap bitmap = new ConcurrentLongBitmap();
+        final long[] values = {Long.MAX_VALUE, 1L << 40, 42, 0, -1, Long.MIN_VALUE, -CHUNK_SIZE - 1};
+        for (long v : values) {
+            assertTrue(bitmap.add(v));
+        }
+        for (long v : values) {
+            assertTrue(bitmap.contains(v));
+        }
+        assertFalse(bitmap.contains(-2));
+        assertEquals(values.length, bitmap.size());
+
+        final List<Long> seen = new ArrayList<>();
+        bitmap.forEach(seen::add);
+        assertEquals(List.of(Long.MIN_VALUE, -CHUNK_SIZE - 1, -1L, 0L, 42L, 1L << 40, Long.MAX_VALUE), seen);
+    }
+
+    @Test
+    public void chunkKeysAreSorted() {
+        final ConcurrentLongBitmap bitmap = new ConcurrentLongBitmap();
+        bitmap.add(5 * CHUNK_SIZE);
+        bitmap.add(-1);
+        bitmap.add(1);
+        bitmap.add(5 * CHUNK_SIZE + 1);
+        assertArrayEquals(new long[]{-1, 0, 5}, bitmap.chunkKeys());
+    }
+
+    @Test
+    public void chunkHashesMatchOnlyForTheSameValues() {
+        final ConcurrentLongBitmap a = new ConcurrentLongBitmap();
+        final ConcurrentLongBitmap b = new ConcurrentLongBitmap();
+        assertEquals(0, a.chunkHash(0));
+
+        a.add(1);
+        a.add(100);
+        b.add(100);
+        b.add(1);
+        assertNotEquals(0, a.chunkHash(0));
+        assertEquals(a.chunkHash(0), b.chunkHash(0));
+
+        b.add(2);
+        assertNotEquals(a.chunkHash(0), b.chunkHash(0));
+    }
+
+    @Test
+    public void copiesAndMergesWholeChunks() {
+        final ConcurrentLongBitmap from = new ConcurrentLongBitmap();
+        from.add(3 * CHUNK_SIZE + 1);
+        from.add(3 * CHUNK_SIZE + 70);
+        final long[] words = new long[ConcurrentLongBitmap.CHUNK_WORDS];
+        from.copyChunk(3, words);
+
+        final ConcurrentLongBitmap to = new ConcurrentLongBitmap();
+        to.add(3 * CHUNK_SIZE + 1);
+        to.addChunk(3, words);
+        assertEquals(2, to.size());
+        assertEquals(from.chunkHash(3), to.chunkHash(3));
+
+        final List<Long> seen = new ArrayList<>();
+        to.forEachInChunk(3, seen::add);
+        assertEquals(List.of(3 * CHUNK_SIZE + 1, 3 * CHUNK_SIZE + 70), seen);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.the123saurav.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+    @Test
+    public void emptyReadsAsZero() {
+        final Histogram h = new Histogram();
+        assertEquals(0, h.count());
+        assertEquals(0, h.percentile(0.99));
+        assertEquals(0, h.mean(), 0);
+        assertEquals(0, h.max());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        final Histogram h = new Histogram();
+        for (int v = 1; v <= 10; v++) {
+            h.record(v);
+        }
+        assertEquals(10, h.count());
+        assertEquals(5, h.percentile(0.5));
+        assertEquals(9, h.percentile(0.9));
+        assertEquals(10, h.percentile(1.0));
+        assertEquals(5.5, h.mean(), 1e-9);
+        assertEquals(10, h.max());
+    }
+
+    @Test
+    public void largeValuesAreWithinThreePercent() {
+        for (long v = 33; v < Long.MAX_VALUE / 3 && v > 0; v = v * 3 + 1) {
+            final Histogram h = new Histogram();
+            h.record(v);
+            h.record(v * 2);
+            final long p50 = h.percentile(0.5);
+            assertTrue(v + " read as " + p50, p50 >= v && p50 <= v + v / 32);
+        }
+    }
+
+    @Test
+    public void bucketsTileTheRange() {
+        // Every bucket starts just past the end of the one before it.
+        for (int i = 1; i < 1000; i++) {
+            assertEquals(i - 1, Histogram.index(Histogram.upperBound(i - 1)));
+            assertEquals(i, Histogram.index(Histogram.upperBound(i - 1) + 1));
+        }
+        assertEquals(Histogram.index(Long.MAX_VALUE), Histogram.index(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void percentilesNeverExceedTheMax() {
+        final Histogram h = new Histogram();
+        h.record(1000);
+        h.record(-5);
+        assertEquals(1000, h.percentile(0.99));
+        assertEquals(0, h.percentile(0.5));
+        assertEquals(1000, h.max());
+    }
+}
@@ -0,0 +1,73 @@
+package com.the123saurav.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class HybridLogicalClockTest {
+    private static final long WALL_MS = 1_700_000_000_000L;
+
+    private final AtomicLong wall = new AtomicLong(WALL_MS);
+    private final HybridLogicalClock hlc = new HybridLogicalClock(wall::get, 500);
+
+    @Test
+    public void tracksTheWallClock() {
+        final long t = hlc.now();
+        assertEquals(WALL_MS, HybridLogicalClock.physicalMs(t));
+        assertEquals(0, HybridLogicalClock.logical(t));
+
+        wall.addAndGet(5);
+        assertEquals(WALL_MS + 5, HybridLogicalClock.physicalMs(hlc.now()));
+    }
+
+    @Test
+    public void countsWithinAMillisecondAndWhileTheWallClockIsBehind() {
+        final long first = hlc.now();
+        final long second = hlc.now();
+        assertEquals(first + 1, second);
+
+        wall.addAndGet(-100);
+        final long third = hlc.now();
+        assertEquals(WALL_MS, HybridLogicalClock.physicalMs(third));
+        assertEquals(2, HybridLogicalClock.logical(third));
+    }
+
+    @Test
+    public void orderedAfterAnObservedStamp() {
+        final long remote = stamp(WALL_MS + 100, 7);
+        assertTrue(hlc.observe(remote));
+        assertEquals(remote, hlc.current());
+        assertEquals(remote + 1, hlc.now());
+        // Anything older than what we hold is a plain read.
+        assertTrue(hlc.observe(stamp(WALL_MS - 100, 0)));
+        assertEquals(remote + 1, hlc.current());
+    }
+
+    @Test
+    public void clampsAStampTooFarAhead() {
+        assertTrue(hlc.observe(stamp(WALL_MS + 500, 3)));
+        assertFalse(hlc.observe(stamp(WALL_MS + 60_000, 0)));
+        assertEquals(stamp(WALL_MS + 500, 3), hlc.current());
+
+        wall.addAndGet(1000);
+        assertFalse(hlc.observe(stamp(WALL_MS + 60_000, 0)));
+        assertEquals(stamp(WALL_MS + 1500, 0), hlc.current());
+        assertTrue(hlc.now() > stamp(WALL_MS + 1500, 0));
+    }
+
+    @Test
+    public void unboundedByDefault() {
+        final HybridLogicalClock unbounded = new HybridLogicalClock();
+        final long far = stamp(System.currentTimeMillis() + 3_600_000, 0);
+        assertTrue(unbounded.observe(far));
+        assertEquals(far, unbounded.current());
+    }
+
+    private static long stamp(long ms, int logical) {
+        return ms << HybridLogicalClock.LOGICAL_BITS | logical;
+    }
+}
@@ -0,0 +1,205 @@
+package com.the123saurav.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LongSetLogTest {
+    private static final int SEGMENT_BYTES = 64 * 1024;
+    // Long enough that nothing commits or snapshots on its own while a test runs.
+    private static final long NEVER_MS = 3_600_000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void replaysCommittedValues() throws Exception {
+        final Path dir = tmp.getRoot().toPath();
+        final LongSetLog log = LongSetLog.open(dir, new ConcurrentLongBitmap(), SEGMENT_BYTES, NEVER_MS, NEVER_MS);
+        for (long v = 0; v < 1000; v++) {
+            log.append(v * 7);
+        }
+        log.append(-5);
+        log.append(1L << 40);
+        log.close();
+
+        final ConcurrentLongBitmap recovered = reopen(dir);
+        assertEquals(1002, recovered.size());
+        for (long v = 0; v < 1000; v++) {
+            assertTrue(recovered.contains(v * 7));
+        }
+        assertTrue(recovered.contains(-5));
+        assertTrue(recovered.contains(1L << 40));
+    }
+
+    @Test
+    public void replaysAcrossSegments() throws Exception {
+        final Path dir = tmp.getRoot().toPath();
+        // Room for a little under 100 values per segment, so the commit spills over several.
+        final LongSetLog log = LongSetLog.open(dir, new ConcurrentLongBitmap(), 800, NEVER_MS, NEVER_MS);
+        for (long v = 0; v < 1000; v++) {
+            log.append(v);
+        }
+        log.close();
+
+        assertTrue(segments(dir).size() > 10);
+        assertEquals(1000, reopen(dir).size());
+    }
+
+    @Test
+    public void stopsAtATornGroup() throws Exception {
+        final Path dir = tmp.getRoot().toPath();
+        final LongSetLog log = LongSetLog.open(dir, new ConcurrentLongBitmap(), SEGMENT_BYTES, NEVER_MS, NEVER_MS);
+        log.append(1);
+        log.append(2);
+        log.append(3);
+        log.close();
+
+        // A second group right behind the first whose CRC doesn't match its values, as if the crash hit
+        // halfway through writing it.
+        final Path segment = segments(dir).get(0);
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            final ByteBuffer group = ByteBuffer.allocate(8 + 16);
+            group.putInt(2).putInt(0xdeadbeef).putLong(100).putLong(200).flip();
+            ch.write(group, 8 + 3 * 8);
+        }
+
+        final ConcurrentLongBitmap recovered = reopen(dir);
+        assertEquals(3, recovered.size());
+        assertFalse(recovered.contains(100));
+        assertFalse(recovered.contains(200));
+    }
+
+    @Test
+    public void ignoresAGroupRunningPastTheEndOfItsSegment() throws Exception {
+        final Path dir = tmp.getRoot().toPath();
+        final LongSetLog log = LongSetLog.open(dir, new ConcurrentLongBitmap(), SEGMENT_BYTES, NEVER_MS, NEVER_MS);
+        log.append(1);
+        log.close();
+
+        final Path segment = segments(dir).get(0);
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(8);
+            header.putInt(SEGMENT_BYTES).putInt(0).flip();
+            ch.write(header, 16);
+        }
+
+        assertEquals(1, reopen(dir).size());
+    }
+
+    @Test
+    public void recoversFromSnapshotPlusTail() throws Exception {
+        final Path dir = tmp.getRoot().toPath();
+        // A snapshot interval of zero snapshots on every committer pass, including the last one at close.
+        // Snapshots copy the set, so values go into it as well as the log, the way GossipHandler does it.
+        final ConcurrentLongBitmap live = new ConcurrentLongBitmap();
+        final LongSetLog first = LongSetLog.open(dir, live, SEGMENT_BYTES, NEVER_MS, 0);
+        for (long v = 0; v < 5000; v++) {
+            live.add(v);
+            first.append(v);
+        }
+        first.close();
+        assertTrue(Files.exists(dir.resolve("snapshot")));
+        assertEquals("segments covered by the snapshot are dropped", 1, segments(dir).size());
+
+        // Values after the snapshot only live in the log tail.
+        final ConcurrentLongBitmap set = new ConcurrentLongBitmap();
+        final LongSetLog second = LongSetLog.open(dir, set, SEGMENT_BYTES, NEVER_MS, NEVER_MS);
+        assertEquals(5000, set.size());
+        for (long v = 10_000; v < 10_100; v++) {
+            set.add(v);
+            second.append(v);
+        }
+        second.close();
+
+        final ConcurrentLongBitmap recovered = reopen(dir);
+        assertEquals(5100, recovered.size());
+        assertTrue(recovered.contains(0));
+        assertTrue(recovered.contains(4999));
+        assertTrue(recovered.contains(10_099));
+        assertFalse(recovered.contains(5000));
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesACorruptSnapshot() throws Exception {
+        final Path dir = tmp.getRoot().toPath();
+        final ConcurrentLongBitmap live = new ConcurrentLongBitmap();
+        final LongSetLog log = LongSetLog.open(dir, live, SEGMENT_BYTES, NEVER_MS, 0);
+        live.add(42);
+        log.append(42);
+        log.close();
+
+        final Path snapshot = dir.resolve("snapshot");
+        final byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(snapshot, bytes);
+        reopen(dir);
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesATruncatedSnapshot() throws Exception {
+        final Path dir = tmp.getRoot().toPath();
+        Files.write(dir.resolve("snapshot"), new byte[0]);
+        reopen(dir);
+    }
+
+    @Test
+    public void keepsLoggingAfterAFailedCommit() throws Exception {
+        final Path dir = tmp.getRoot().toPath();
+        final LongSetLog log = LongSetLog.open(dir, new ConcurrentLongBitmap(), SEGMENT_BYTES, 1, NEVER_MS);
+        // A directory where the next segment should go makes every rollover fail until it is removed.
+        final Path blocker = Files.createDirectory(dir.resolve("wal-00000001"));
+        appendInBursts(log, 0, SEGMENT_BYTES / 4);
+        Files.delete(blocker);
+
+        // Appends racing the commits that follow must all land, none overwritten while being copied.
+        final long from = 1L << 32;
+        final int count = 100_000;
+        appendInBursts(log, from, count);
+        log.close();
+
+        final ConcurrentLongBitmap recovered = reopen(dir);
+        for (long v = from; v < from + count; v++) {
+            if (!recovered.contains(v)) {
+                throw new AssertionError("lost " + v);
+            }
+        }
+    }
+
+    private static ConcurrentLongBitmap reopen(Path dir) throws Exception {
+        final ConcurrentLongBitmap set = new ConcurrentLongBitmap();
+        LongSetLog.open(dir, set, SEGMENT_BYTES, NEVER_MS, NEVER_MS).close();
+        return set;
+    }
+
+    private static List<Path> segments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("wal-")).sorted().toList();
+        }
+    }
+
+    // Small bursts with pauses between them, so commits overlap appends without the pending buffer
+    // ever needing to grow.
+    private static void appendInBursts(LongSetLog log, long from, int count) {
+        for (long v = from; v < from + count; v++) {
+            log.append(v);
+            if (v % 100 == 0) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.the123saurav.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import org.junit.Test;
+
+public class MessageCodecTest {
+    @Test
+    public void scansRoutingFieldsFromRawBytes() {
+        final Message m = parse("{\"dest\":\"n1\",\"body\":{\"type\":\"echo\",\"msg_id\":7,\"in_reply_to\":-3,\"hlc\":123456789012},\"src\":\"c1\"}");
+        assertEquals("c1", m.src);
+        assertEquals("n1", m.dest);
+        assertEquals("echo", m.type());
+        assertEquals(7, m.msgId());
+        assertEquals(-3, m.inReplyTo());
+        assertEquals(123456789012L, m.hlc());
+    }
+
+    @Test
+    public void absentFieldsAreNone() {
+        final Message m = parse("{\"src\":\"c1\",\"dest\":\"n1\",\"body\":{}}");
+        assertNull(m.type());
+        assertEquals(MessageCodec.NONE, m.msgId());
+        assertEquals(MessageCodec.NONE, m.inReplyTo());
+        assertEquals(MessageCodec.NONE, m.hlc());
+    }
+
+    @Test
+    public void skipsNestedValuesWithoutMatchingInsideThem() {
+        final Message m = parse(" { \"src\" : \"c1\" , \"body\" : { \"value\" : {\"msg_id\": 99, \"type\": \"inner\"},"
+                + " \"text\" : \"a \\\"quoted\\\" } { [ string\", \"list\" : [1, [2, {\"in_reply_to\": 5}], null, true],"
+                + " \"type\" : \"outer\" , \"msg_id\" : 4 } , \"dest\" : \"n2\" } ");
+        assertEquals("n2", m.dest);
+        assertEquals("outer", m.type());
+        assertEquals(4, m.msgId());
+        assertEquals(MessageCodec.NONE, m.inReplyTo());
+        assertEquals("a \"quoted\" } { [ string", m.body().getString("text", null));
+    }
+
+    @Test
+    public void readsIntegersWrittenAsFloats() {
+        final Message m = parse("{\"src\":\"c1\",\"dest\":\"n1\",\"body\":{\"msg_id\":1.5e3}}");
+        assertEquals(1500, m.msgId());
+    }
+
+    @Test
+    public void knownTypesAreInterned() {
+        final String type = MessageCodec.intern(new String("interned_type"));
+        final Message m = parse("{\"src\":\"c1\",\"dest\":\"n1\",\"body\":{\"type\":\"interned_type\"}}");
+        assertSame(type, m.type());
+    }
+
+    @Test
+    public void parsesTheBodyOnDemand() {
+        final Message m = parse("{\"src\":\"c1\",\"dest\":\"n1\",\"body\":{\"type\":\"add\",\"delta\":[1,2]}}");
+        assertEquals("(msg c1 n1 {\"type\":\"add\",\"delta\":[1,2]})", m.toString());
+        assertEquals(Json.object().add("type", "add").add("delta", Json.array(1, 2)), m.body());
+        assertSame(m.body(), m.body());
+    }
+
+    @Test
+    public void rejectsEnvelopesWithoutABodyObject() {
+        assertMalformed("[1,2]");
+        assertMalformed("{\"src\":\"c1\",\"dest\":\"n1\"}");
+        assertMalformed("{\"src\":\"c1\",\"dest\":\"n1\",\"body\":7}");
+    }
+
+    @Test
+    public void writesEnvelopesWithFieldsSplicedIn() {
+        final JsonObject body = Json.object().add("type", "read_ok").add("msg_id", 1).add("hlc", 2).add("value", "x");
+        final StringBuilder sb = new StringBuilder();
+        MessageCodec.writeEnvelope(sb, "n1", "c1", body, 10, 20, 30);
+        assertEquals("{\"src\":\"n1\",\"dest\":\"c1\",\"body\":{\"type\":\"read_ok\",\"value\":\"x\","
+                + "\"in_reply_to\":20,\"msg_id\":10,\"hlc\":30}}", sb.toString());
+
+        // The original msg_id stays when there is none to splice in, but a stale hlc never does.
+        sb.setLength(0);
+        MessageCodec.writeEnvelope(sb, "n1", "c1", body, MessageCodec.NONE, MessageCodec.NONE, MessageCodec.NONE);
+        final Message m = parse(sb.toString());
+        assertEquals(1, m.msgId());
+        assertEquals(MessageCodec.NONE, m.hlc());
+        assertEquals("x", m.body().getString("value", null));
+    }
+
+    @Test
+    public void writesPreserializedMembers() {
+        final StringBuilder sb = new StringBuilder();
+        MessageCodec.writeEnvelope(sb, "n1", "c1", "", MessageCodec.NONE, 5, MessageCodec.NONE);
+        assertEquals("{\"src\":\"n1\",\"dest\":\"c1\",\"body\":{\"in_reply_to\":5}}", sb.toString());
+
+        sb.setLength(0);
+        MessageCodec.writeEnvelope(sb, "n1", "c1", "\"type\":\"ok\"", 6, 5, MessageCodec.NONE);
+        final Message m = parse(sb.toString());
+        assertEquals("ok", m.type());
+        assertEquals(6, m.msgId());
+        assertEquals(5, m.inReplyTo());
+    }
+
+    @Test
+    public void escapesStrings() {
+        final StringBuilder sb = new StringBuilder();
+        final String s = "tab\there \"quote\" back\\slash \u0001 snow☃";
+        MessageCodec.writeString(sb, s);
+        assertEquals(s, Json.parse(sb.toString()).asString());
+    }
+
+    private static Message parse(String envelope) {
+        return new Message(envelope.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertMalformed(String envelope) {
+        try {
+            parse(envelope).type();
+            fail("parsed " + envelope);
+        } catch (Error e) {
+            assertEquals(12, e.code);
+        }
+    }
+}
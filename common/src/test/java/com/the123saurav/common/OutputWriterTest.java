@@ -0,0 +1,63 @@
+package com.the123saurav.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class OutputWriterTest {
+    @Test
+    public void writesLinesInOrder() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final OutputWriter writer = new OutputWriter(out, 16, 64);
+        for (int i = 0; i < 100; i++) {
+            writer.write("line " + i);
+        }
+        // Longer than the buffer, and not ASCII.
+        writer.write("snow ☃ ".repeat(20));
+        writer.drain();
+
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            expected.append("line ").append(i).append('\n');
+        }
+        expected.append("snow ☃ ".repeat(20)).append('\n');
+        assertEquals(expected.toString(), out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void dropsAFailedBatchAndCarriesOn() {
+        final AtomicInteger failures = new AtomicInteger(1);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                written.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IOException("broken pipe");
+                }
+                written.write(b, off, len);
+            }
+        };
+        final OutputWriter writer = new OutputWriter(out, 16, 64);
+        writer.write("lost");
+        writer.drain();
+
+        // The writer has gone idle rather than retrying the failed batch forever.
+        final long start = System.nanoTime();
+        writer.write("kept");
+        writer.drain();
+        assertTrue(System.nanoTime() - start < 500_000_000L);
+        assertEquals("kept\n", written.toString(StandardCharsets.UTF_8));
+    }
+}
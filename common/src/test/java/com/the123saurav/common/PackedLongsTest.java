@@ -0,0 +1,82 @@
+package com.the123saurav.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+import com.eclipsesource.json.Json;
+import org.junit.Test;
+
+public class PackedLongsTest {
+    @Test
+    public void matchesTheReadmeExample() {
+        final long[] values = {1000, 1001, 1002};
+        assertEquals("A9APAgI", PackedLongs.encode(values, values.length));
+        assertArrayEquals(values, PackedLongs.decode("A9APAgI"));
+    }
+
+    @Test
+    public void roundTripsSortedRuns() {
+        final long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1_000_000 + 3L * i;
+        }
+        final String packed = PackedLongs.encode(values, values.length);
+        assertArrayEquals(values, PackedLongs.decode(packed));
+        // A count, a first value of three bytes and one byte per step of 3.
+        assertEquals(2 + 3 + 999, Base64.getDecoder().decode(packed).length);
+    }
+
+    @Test
+    public void negativeStepsStaySmall() {
+        final long[] values = {10, 9, 7, 8, -5, -6};
+        final String packed = PackedLongs.encode(values, values.length);
+        assertArrayEquals(values, PackedLongs.decode(packed));
+        assertEquals(1 + values.length, Base64.getDecoder().decode(packed).length);
+    }
+
+    @Test
+    public void stepsWrapAroundAtTheExtremes() {
+        final long[] values = {Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE, 0, Long.MIN_VALUE};
+        assertArrayEquals(values, PackedLongs.decode(PackedLongs.encode(values, values.length)));
+    }
+
+    @Test
+    public void encodesOnlyTheFirstN() {
+        final long[] values = {4, 5, 6, 7};
+        assertArrayEquals(new long[]{4, 5}, PackedLongs.decode(PackedLongs.encode(values, 2)));
+        assertArrayEquals(new long[0], PackedLongs.decode(PackedLongs.encode(values, 0)));
+    }
+
+    @Test
+    public void readsEitherForm() {
+        final long[] values = {3, 1, 4, 1, 5};
+        assertArrayEquals(values, PackedLongs.read(Json.value(PackedLongs.encode(values, values.length))));
+        assertArrayEquals(values, PackedLongs.read(Json.array(values)));
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        assertMalformed("not base64!");
+        // A count of 4 with only two values behind it.
+        assertMalformed(Base64.getEncoder().withoutPadding().encodeToString(new byte[]{4, 0, 2}));
+        // A value cut off in the middle of its varint.
+        assertMalformed(Base64.getEncoder().withoutPadding().encodeToString(new byte[]{2, 0, (byte) 0x80}));
+        // Eleven continuation bytes.
+        final byte[] tooLong = new byte[12];
+        Arrays.fill(tooLong, (byte) 0x80);
+        assertMalformed(Base64.getEncoder().withoutPadding().encodeToString(tooLong));
+    }
+
+    private static void assertMalformed(String packed) {
+        try {
+            PackedLongs.decode(packed);
+            fail("decoded " + packed);
+        } catch (Error e) {
+            assertEquals(12, e.code);
+        }
+    }
+}
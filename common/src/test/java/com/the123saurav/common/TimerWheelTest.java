@@ -0,0 +1,104 @@
+package com.the123saurav.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TimerWheelTest {
+    private long nowNanos = 0;
+    private final Clock clock = new Clock() {
+        @Override
+        public long nanoTime() {
+            return nowNanos;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return nowNanos / 1_000_000;
+        }
+    };
+    // 1ms ticks on an 8 bucket wheel, running tasks inline.
+    private final TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, 8, Runnable::run, clock);
+    private final List<Long> fired = new ArrayList<>();
+
+    @Test
+    public void firesOnceAtTheDeadline() {
+        wheel.schedule(this::record, 5, TimeUnit.MILLISECONDS);
+        advanceTo(4);
+        assertEquals(List.of(), fired);
+        advanceTo(20);
+        assertEquals(List.of(5L), fired);
+    }
+
+    @Test
+    public void roundsPartialTicksUp() {
+        nowNanos = 300_000;
+        wheel.schedule(this::record, 1, TimeUnit.MILLISECONDS);
+        advanceTo(1);
+        assertEquals(List.of(), fired);
+        advanceTo(2);
+        assertEquals(List.of(2L), fired);
+    }
+
+    @Test
+    public void waitsOutWholeRevolutions() {
+        wheel.schedule(this::record, 21, TimeUnit.MILLISECONDS);
+        wheel.schedule(this::record, 8, TimeUnit.MILLISECONDS);
+        advanceTo(40);
+        assertEquals(List.of(8L, 21L), fired);
+    }
+
+    @Test
+    public void cancelledTasksNeverFire() {
+        final TimerWheel.Timeout t = wheel.schedule(this::record, 3, TimeUnit.MILLISECONDS);
+        advanceTo(1);
+        assertTrue(t.cancel());
+        assertTrue(t.isCancelled());
+        assertFalse(t.cancel());
+        advanceTo(10);
+        assertEquals(List.of(), fired);
+    }
+
+    @Test
+    public void periodicTasksAreReplacedEveryPeriod() {
+        final TimerWheel.Timeout t = wheel.schedulePeriodic(this::record, 3, TimeUnit.MILLISECONDS);
+        advanceTo(10);
+        assertEquals(List.of(3L, 6L, 9L), fired);
+        t.cancel();
+        advanceTo(20);
+        assertEquals(List.of(3L, 6L, 9L), fired);
+    }
+
+    @Test
+    public void periodsLongerThanTheWheel() {
+        wheel.schedulePeriodic(this::record, 11, TimeUnit.MILLISECONDS);
+        advanceTo(40);
+        assertEquals(List.of(11L, 22L, 33L), fired);
+    }
+
+    @Test
+    public void catchesUpAfterAJump() {
+        wheel.schedulePeriodic(this::record, 2, TimeUnit.MILLISECONDS);
+        nowNanos = TimeUnit.MILLISECONDS.toNanos(7);
+        wheel.advance();
+        assertEquals(List.of(7L, 7L, 7L), fired);
+    }
+
+    // Move the clock a millisecond at a time so tasks see the tick they fired on.
+    private void advanceTo(long ms) {
+        while (nowNanos < TimeUnit.MILLISECONDS.toNanos(ms)) {
+            nowNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(ms), (nowNanos / 1_000_000 + 1) * 1_000_000);
+            wheel.advance();
+        }
+    }
+
+    private void record() {
+        fired.add(nowNanos / 1_000_000);
+    }
+}
@@ -33,14 +33,17 @@ public class EchoHandler extends Node {
         }
     }
 
-    @Override
-    public void handle(Message message) {
+    public EchoHandler() {
+        on("echo", this::handleEcho);
+    }
+
+    private void handleEcho(Message message) {
         EchoMessage echoMessage = new EchoMessage(
-                message.body.getString("type", null),
-                message.body.getLong("msg_id", -1),
-                message.body.getString("echo", null)
+                message.body().getString("type", null),
+                message.body().getLong("msg_id", -1),
+                message.body().getString("echo", null)
         );
-        Logger.log("Message received is: " + echoMessage);
+        Logger.debug("Message received is: {}", echoMessage);
         reply(message, new EchoResponse(echoMessage.echo));
     }
 }
@@ -0,0 +1,151 @@
+package com.the123saurav.gcounter;
+
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.the123saurav.common.Error;
+import com.the123saurav.common.IJson;
+import com.the123saurav.common.Logger;
+import com.the123saurav.common.Message;
+import com.the123saurav.common.Node;
+import com.the123saurav.common.ReplyTemplate;
+import lombok.RequiredArgsConstructor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A grow-only counter as a delta-state CRDT.
+// The state is one component per node: the total that node has added. Only the owner ever increases
+// its own component, merging takes the per-component max, and the value is the sum, so adds need no
+// coordination and are answered straight away.
+// Every `gossipIntervalMs` we send each peer, in one RPC, the components which have grown past what
+// that peer last acknowledged from us. That is the delta: usually just our own component, but it also
+// carries others' so values route around a peer we can't reach directly. A lost or unacked delta is
+// simply resent next round since the peer's acked values haven't moved. At most one delta is in
+// flight per peer, so an unreachable peer costs one outstanding RPC rather than one per round.
+public class GCounterHandler extends Node {
+
+    private static final ReplyTemplate ADD_OK = ReplyTemplate.ofType("add_ok");
+    private static final ReplyTemplate DELTA_OK = ReplyTemplate.ofType("delta_ok");
+
+    // Node id -> that node's total.
+    private final ConcurrentHashMap<String, Long> counts = new ConcurrentHashMap<>();
+    // Peer -> the components it has acknowledged receiving from us.
+    private final ConcurrentHashMap<String, Map<String, Long>> acked = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Boolean> inFlight = new ConcurrentHashMap<>();
+    private final long gossipIntervalMs;
+
+    public GCounterHandler() {
+        this(Long.getLong("gcounter.gossip.ms", 50));
+    }
+
+    public GCounterHandler(long gossipIntervalMs) {
+        this.gossipIntervalMs = gossipIntervalMs;
+
+        on("add", this::handleAdd);
+        on("read", this::handleRead);
+        on("delta", this::handleDelta);
+
+        metrics.gauge("gcounter.value", this::value);
+    }
+
+    @RequiredArgsConstructor
+    class ReadResponse implements IJson {
+        private static final String TYPE = "read_ok";
+
+        private final long value;
+
+        @Override
+        public JsonValue toJson() {
+            JsonObject jsonObject = new JsonObject();
+            jsonObject.add("type", TYPE);
+            jsonObject.add("value", value);
+            return jsonObject;
+        }
+    }
+
+    // The components a peer is behind on.
+    @RequiredArgsConstructor
+    class DeltaMessage {
+        private final Map<String, Long> delta;
+
+        public JsonObject toJson() {
+            JsonObject jsonCounts = new JsonObject();
+            delta.forEach(jsonCounts::add);
+            return new JsonObject()
+                    .add("type", "delta")
+                    .add("counts", jsonCounts);
+        }
+    }
+
+    @Override
+    protected void handleInit(Message message) {
+        super.handleInit(message);
+        for (String peer : nodeIds) {
+            if (!peer.equals(nodeId)) {
+                acked.put(peer, new ConcurrentHashMap<>());
+            }
+        }
+        if (!acked.isEmpty()) {
+            schedulePeriodic(this::gossip, gossipIntervalMs);
+        }
+    }
+
+    private void handleAdd(Message message) {
+        final long delta = message.body().getLong("delta", 0);
+        if (delta < 0) {
+            throw Error.malformedRequest("a grow-only counter can't add " + delta);
+        }
+        counts.merge(nodeId, delta, Long::sum);
+        reply(message, ADD_OK);
+    }
+
+    private void handleRead(Message message) {
+        reply(message, new ReadResponse(value()));
+    }
+
+    private void handleDelta(Message message) {
+        for (JsonObject.Member member : message.body().get("counts").asObject()) {
+            counts.merge(member.getName(), member.getValue().asLong(), Math::max);
+        }
+        reply(message, DELTA_OK);
+    }
+
+    private long value() {
+        long sum = 0;
+        for (long c : counts.values()) {
+            sum += c;
+        }
+        return sum;
+    }
+
+    private void gossip() {
+        acked.forEach((peer, peerAcked) -> {
+            if (inFlight.putIfAbsent(peer, Boolean.TRUE) != null) {
+                return;
+            }
+            final Map<String, Long> delta = new HashMap<>();
+            counts.forEach((node, count) -> {
+                if (!node.equals(peer) && count > peerAcked.getOrDefault(node, 0L)) {
+                    delta.put(node, count);
+                }
+            });
+            if (delta.isEmpty()) {
+                inFlight.remove(peer);
+                return;
+            }
+            rpc(peer, new DeltaMessage(delta).toJson()).whenComplete((body, e) -> {
+                inFlight.remove(peer);
+                if (e != null) {
+                    Logger.debug("Delta to {} failed, resending next round: {}", peer, e);
+                    return;
+                }
+                if (!"delta_ok".equals(body.getString("type", null))) {
+                    Logger.debug("Unexpected reply to a delta from {}, resending next round: {}", peer, body);
+                    return;
+                }
+                delta.forEach((node, count) -> peerAcked.merge(node, count, Math::max));
+            });
+        });
+    }
+}
@@ -0,0 +1,133 @@
+package com.the123saurav.gcounter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.the123saurav.common.Clock;
+import com.the123saurav.common.Message;
+import com.the123saurav.common.TimerWheel;
+import org.junit.Before;
+import org.junit.Test;
+
+// Drives one node, n0, by hand: messages go straight into handleMessage, everything it writes is
+// captured, and its timers run on a clock the test moves.
+public class GCounterHandlerTest {
+    private static final long GOSSIP_MS = 10;
+
+    private long nowNanos = 0;
+    private final Clock clock = new Clock() {
+        @Override
+        public long nanoTime() {
+            return nowNanos;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return 1_700_000_000_000L + nowNanos / 1_000_000;
+        }
+    };
+    private final List<Message> sent = new ArrayList<>();
+    private final GCounterHandler node = new GCounterHandler(GOSSIP_MS);
+    private TimerWheel timer;
+    private long nextClientMsgId = 0;
+
+    @Before
+    public void init() {
+        node.setOutput(line -> sent.add(new Message(line.toString().getBytes(StandardCharsets.UTF_8))));
+        timer = node.runOn(clock, new Random(1), Runnable::run);
+        request("c0", Json.object().add("type", "init").add("node_id", "n0").add("node_ids", Json.array("n0", "n1")));
+        sent.clear();
+    }
+
+    @Test
+    public void mergingADeltaIsIdempotent() {
+        request("c0", Json.object().add("type", "add").add("delta", 2));
+        final JsonObject delta = Json.object().add("type", "delta").add("counts", Json.object().add("n1", 5));
+        request("n1", delta);
+        request("n1", delta);
+        // An older delta arriving late doesn't take anything back.
+        request("n1", Json.object().add("type", "delta").add("counts", Json.object().add("n1", 3)));
+        assertEquals(7, read());
+    }
+
+    @Test
+    public void resendsUntilTheDeltaIsAcked() {
+        request("c0", Json.object().add("type", "add").add("delta", 3));
+        Message delta = nextDelta();
+        assertEquals(3, delta.body().get("counts").asObject().getLong("n0", 0));
+
+        // Neither an error nor a reply of the wrong type counts as an ack.
+        reply(delta, Json.object().add("type", "error").add("code", 11));
+        delta = nextDelta();
+        reply(delta, Json.object().add("type", "add_ok"));
+        delta = nextDelta();
+
+        reply(delta, Json.object().add("type", "delta_ok"));
+        sent.clear();
+        advance(5 * GOSSIP_MS);
+        assertEquals(List.of(), deltas());
+
+        request("c0", Json.object().add("type", "add").add("delta", 1));
+        assertEquals(4, nextDelta().body().get("counts").asObject().getLong("n0", 0));
+    }
+
+    @Test
+    public void keepsOneDeltaInFlightPerPeer() {
+        request("c0", Json.object().add("type", "add").add("delta", 1));
+        // Several rounds pass before the first delta times out, none of them send another.
+        advance(45);
+        assertEquals(1, deltas().size());
+
+        // Once it times out the next round tries again.
+        advance(20);
+        assertEquals(2, deltas().size());
+    }
+
+    private void request(String src, JsonObject body) {
+        body.set("msg_id", nextClientMsgId++);
+        node.handleMessage(new Message(src, "n0", body));
+    }
+
+    private void reply(Message to, JsonObject body) {
+        body.set("in_reply_to", to.msgId());
+        node.handleMessage(new Message("n1", "n0", body));
+    }
+
+    private long read() {
+        sent.clear();
+        request("c0", Json.object().add("type", "read"));
+        return sent.get(0).body().getLong("value", -1);
+    }
+
+    // Let gossip rounds pass until a delta goes out, and return it.
+    private Message nextDelta() {
+        sent.clear();
+        for (int i = 0; i < 10; i++) {
+            advance(GOSSIP_MS);
+            final List<Message> deltas = deltas();
+            if (!deltas.isEmpty()) {
+                assertEquals(1, deltas.size());
+                return deltas.get(0);
+            }
+        }
+        throw new AssertionError("no delta sent");
+    }
+
+    private List<Message> deltas() {
+        return sent.stream().filter(m -> "delta".equals(m.type())).toList();
+    }
+
+    private void advance(long ms) {
+        for (long i = 0; i < ms; i++) {
+            nowNanos += TimeUnit.MILLISECONDS.toNanos(1);
+            timer.advance();
+        }
+    }
+}
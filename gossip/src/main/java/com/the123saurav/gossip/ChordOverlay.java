@@ -0,0 +1,41 @@
+package com.the123saurav.gossip;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Chord style fingers: node i pushes to i + 2^(j-1) for j in 1..ceil(log2 n). Any node is reached
+// in at most log2(n) hops along several paths, paid for with n * log2(n) sends per value.
+public class ChordOverlay implements Overlay {
+    private int numNodes;
+    private List<String> fingers = List.of();
+
+    @Override
+    public void init(String self, List<String> nodeIds) {
+        this.numNodes = nodeIds.size();
+        this.fingers = fingers(nodeIds.indexOf(self), nodeIds);
+    }
+
+    static List<String> fingers(int index, List<String> nodeIds) {
+        int numNodes = nodeIds.size();
+        int logN = 32 - Integer.numberOfLeadingZeros(Math.max(1, numNodes - 1));
+        List<String> peers = new ArrayList<>();
+        for (int i = 1; i <= logN; i++) {
+            String peer = nodeIds.get((index + (1 << (i - 1))) % numNodes);
+            if (!peers.contains(peer) && !peer.equals(nodeIds.get(index))) {
+                peers.add(peer);
+            }
+        }
+        return peers;
+    }
+
+    @Override
+    public Collection<String> eagerPeers() {
+        return fingers;
+    }
+
+    @Override
+    public double msgsPerOp() {
+        return 2.0 * numNodes * fingers.size();
+    }
+}
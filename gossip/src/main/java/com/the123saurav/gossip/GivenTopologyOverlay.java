@@ -0,0 +1,49 @@
+package com.the123saurav.gossip;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+// Push to the neighbours from the topology message. Until one arrives we push to everyone.
+public class GivenTopologyOverlay implements Overlay {
+    private String self;
+    private int numNodes;
+    private volatile List<String> neighbours = List.of();
+    private volatile int edges;
+
+    @Override
+    public void init(String self, List<String> nodeIds) {
+        this.self = self;
+        this.numNodes = nodeIds.size();
+        List<String> others = new ArrayList<>(nodeIds);
+        others.remove(self);
+        this.neighbours = others;
+        this.edges = numNodes * (numNodes - 1) / 2;
+    }
+
+    @Override
+    public void setTopology(Map<String, List<String>> topology) {
+        List<String> mine = topology.get(self);
+        if (mine == null) {
+            return;
+        }
+        int degrees = 0;
+        for (List<String> peers : topology.values()) {
+            degrees += peers.size();
+        }
+        this.edges = degrees / 2;
+        this.neighbours = List.copyOf(mine);
+    }
+
+    @Override
+    public Collection<String> eagerPeers() {
+        return neighbours;
+    }
+
+    @Override
+    public double msgsPerOp() {
+        // Every node forwards once over every edge but the one it heard from.
+        return 2.0 * (2 * edges - (numNodes - 1));
+    }
+}
@@ -1,240 +1,535 @@
 package com.the123saurav.gossip;
 
+import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonArray;
 import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
+import com.the123saurav.common.Backoff;
+import com.the123saurav.common.ConcurrentLongBitmap;
 import com.the123saurav.common.Error;
 import com.the123saurav.common.IJson;
 import com.the123saurav.common.Logger;
+import com.the123saurav.common.LongSetLog;
 import com.the123saurav.common.Message;
 import com.the123saurav.common.Node;
+import com.the123saurav.common.PackedLongs;
+import com.the123saurav.common.ReplyTemplate;
 import lombok.RequiredArgsConstructor;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
 
 public class GossipHandler extends Node {
 
-    private ArrayList<String> gossipNodes = new ArrayList<>();
+    // Timeouts come in floods during partitions, keep them from drowning out everything else.
+    private static final Logger.RateLimit RPC_FAILURE_LOG = new Logger.RateLimit(20);
 
-    private final IJson broadcastResponse = new BroadcastResponse();
-    private final IJson gossipResponse = new GossipResponse();
-    private final IJson areYouThereResponse = new AreYouThereResponse();
-    private final IJson topologyResponse = new TopologyResponse();
-    private final ConcurrentHashMap<Long, Boolean> messages = new ConcurrentHashMap(10000);
+    // Acks never change, so they are serialized once.
+    private static final ReplyTemplate BROADCAST_OK = ReplyTemplate.ofType("broadcast_ok");
+    private static final ReplyTemplate GOSSIP_OK = ReplyTemplate.ofType("gossip_ok");
+    private static final ReplyTemplate AREYOUTHERE_OK = ReplyTemplate.ofType("areyouthere_ok");
+    private static final ReplyTemplate TOPOLOGY_OK = ReplyTemplate.ofType("topology_ok");
+
+    // Who we push new values to.
+    private final Overlay overlay;
+
+    private final ConcurrentLongBitmap messages = new ConcurrentLongBitmap();
+    // The same values in arrival order, with the serialized form reads are answered from.
+    private final SeenLog seen = new SeenLog();
     private final ConcurrentHashMap<String, ArrayList<Long>> pendingMessages = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Long> communicationLog = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, Boolean> preferredNodes = new ConcurrentHashMap();
-    private final Executor pendingMessageExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
-    @RequiredArgsConstructor
-    class BroadcastResponse implements IJson {
-        private static final String TYPE = "broadcast_ok";
+    // Values waiting to be flushed to a destination as a single gossip batch.
+    private final ConcurrentHashMap<String, ArrayList<Long>> outbox = new ConcurrentHashMap<>();
+    // Values waiting to be announced to a lazy peer in a single ihave.
+    private final ConcurrentHashMap<String, ArrayList<Long>> announcements = new ConcurrentHashMap<>();
+    // How long values linger in the outbox before being flushed, and the largest batch we send in one RPC.
+    private final long flushWindowMs;
+    private final int maxBatchSize;
+    // Pending values are retried after an exponentially growing, jittered delay per destination,
+    // or straight away once the destination acks something or talks to us.
+    private final Backoff retryBackoff;
+    private final ConcurrentHashMap<String, Integer> retryAttempts = new ConcurrentHashMap<>();
+    private final Set<String> retryScheduled = ConcurrentHashMap.newKeySet();
+    // Most values we hold for retry per destination. Past that we stop tracking individual values
+    // and leave it to anti-entropy to catch the peer up.
+    private final int maxPendingPerPeer;
+    // How often we exchange seen-set digests with a random peer.
+    private final long syncIntervalMs;
+    // Send value lists to other nodes as PackedLongs strings rather than JSON arrays. Either form is
+    // accepted on the way in, so a cluster can be switched over node by node.
+    private final boolean packed = Boolean.getBoolean("gossip.packed");
+    // Where `messages` is persisted, if gossip.data.dir is set. Opened at init once we know our id.
+    private volatile LongSetLog log;
+    // Values not queued for retry because the destination's pending list was full.
+    private final LongAdder pendingOverflow = metrics.counter("gossip.pending_overflow");
+
+    public GossipHandler() {
+        this(Overlay.named(System.getProperty("gossip.overlay", "chord")),
+                Long.getLong("gossip.flush.ms", 5), Integer.getInteger("gossip.batch.max", 512),
+                Long.getLong("gossip.retry.ms", 20), Integer.getInteger("gossip.pending.max", 4096),
+                Long.getLong("gossip.sync.ms", 500));
+    }
 
-        @Override
-        public JsonValue toJson() {
-            JsonObject jsonObject = new JsonObject();
-            jsonObject.add("type", TYPE);
-            return jsonObject;
+    public GossipHandler(Overlay overlay, long flushWindowMs, int maxBatchSize, long retryBaseMs,
+                         int maxPendingPerPeer, long syncIntervalMs) {
+        this.overlay = overlay;
+        this.flushWindowMs = flushWindowMs;
+        this.maxBatchSize = maxBatchSize;
+        this.retryBackoff = new Backoff(retryBaseMs, 1000);
+        this.maxPendingPerPeer = maxPendingPerPeer;
+        this.syncIntervalMs = syncIntervalMs;
+
+        on("broadcast", this::handleBroadcast);
+        on("gossip", this::handleGossip);
+        on("sync", this::handleSync);
+        on("ihave", this::handleIHave);
+        on("graft", this::handleGraft);
+        on("prune", message -> overlay.prune(message.src));
+        on("areyouthere", this::handleAreYouThere);
+        on("read", this::handleRead);
+        on("topology", this::handleTopology);
+
+        metrics.gauge("gossip.values", messages::size);
+        metrics.gauge("gossip.pending_peers", pendingMessages::size);
+        metrics.gauge("gossip.pending_messages", () -> queued(pendingMessages));
+        metrics.gauge("gossip.outbox", () -> queued(outbox));
+        metrics.gauge("gossip.announcements", () -> queued(announcements));
+    }
+
+    // Values queued across all destinations. Lists may be changing underneath us, which is fine for a gauge.
+    private static long queued(Map<String, ArrayList<Long>> queues) {
+        long n = 0;
+        for (ArrayList<Long> q : queues.values()) {
+            n += q.size();
         }
+        return n;
     }
 
+    // A batch of values. Sent as "gossip" to push them, "ihave" to announce them and "graft" to ask for them.
     @RequiredArgsConstructor
     class GossipMessage {
-        private final long message;
+        private final String type;
+        private final List<Long> messages;
 //        private final int round;
 
         public JsonObject toJson() {
+            final long[] vals = new long[messages.size()];
+            for (int i = 0; i < vals.length; i++) {
+                vals[i] = messages.get(i);
+            }
+            if (packed) {
+                // Order within a batch doesn't matter, and sorted values pack into small deltas.
+                Arrays.sort(vals);
+            }
             return new JsonObject()
-                    .add("type", "gossip")
-                    .add("message", message);
+                    .add("type", type)
+                    .add("messages", values(vals));
 //                    .add("round", round);
         }
 
     }
 
+    // Digest of our seen-set: a hash per chunk of the value space.
     @RequiredArgsConstructor
-    class GossipResponse implements IJson {
-        private static final String TYPE = "gossip_ok";
+    class SyncMessage {
+        private final long[] chunks;
 
-        @Override
-        public JsonValue toJson() {
-            JsonObject jsonObject = new JsonObject();
-            jsonObject.add("type", TYPE);
-            return jsonObject;
+        public JsonObject toJson() {
+            final long[] hashes = new long[chunks.length];
+            for (int i = 0; i < chunks.length; i++) {
+                hashes[i] = messages.chunkHash(chunks[i]);
+            }
+            return new JsonObject()
+                    .add("type", "sync")
+                    .add("chunks", values(chunks))
+                    .add("hashes", values(hashes));
         }
     }
 
+    // Our values in every chunk where the digests differ, and the chunks we want the sender's values for.
     @RequiredArgsConstructor
-    class AreYouThereResponse implements IJson {
-        private static final String TYPE = "areyouthere_ok";
+    class SyncResponse implements IJson {
+        private static final String TYPE = "sync_ok";
 
-        @Override
-        public JsonValue toJson() {
-            JsonObject jsonObject = new JsonObject();
-            jsonObject.add("type", TYPE);
-            return jsonObject;
-        }
-    }
-
-    @RequiredArgsConstructor
-    class ReadResponse implements IJson {
-        private static final String TYPE = "read_ok";
+        private final long[] values;
+        private final long[] want;
 
         @Override
         public JsonValue toJson() {
-            JsonObject jsonObject = new JsonObject();
-            jsonObject.add("type", TYPE);
-
-            JsonArray jsonValues = new JsonArray();
-            messages.keys().asIterator().forEachRemaining(jsonValues::add);
-
-            jsonObject.add("messages", jsonValues);
-            return jsonObject;
+            return new JsonObject()
+                    .add("type", TYPE)
+                    .add("messages", values(values))
+                    .add("want", values(want));
         }
     }
 
-    @RequiredArgsConstructor
-    class TopologyResponse implements IJson {
-        private static final String TYPE = "topology_ok";
-
-        @Override
-        public JsonValue toJson() {
-            JsonObject jsonObject = new JsonObject();
-            jsonObject.add("type", TYPE);
-            return jsonObject;
+    // A list of values for a body member bound to another node, packed if gossip.packed is set.
+    private JsonValue values(long[] vals) {
+        if (packed) {
+            return Json.value(PackedLongs.encode(vals, vals.length));
         }
-    }
-
-
-    private void setGossipNodes() {
-        int numNodes = this.nodeIds.size();
-        for (int i = 1; i <= Math.log(numNodes); i++) {
-            gossipNodes.add(this.nodeIds.get((int) ((this.nodeIdNumber + (int) Math.pow(2, i - 1)) % numNodes)));
+        final JsonArray array = new JsonArray();
+        for (long val : vals) {
+            array.add(val);
         }
-        Logger.log(String.format("Gossip nodes for node %s is %s", nodeId, gossipNodes));
+        return array;
     }
 
+
     @Override
     protected void handleInit(Message message) {
         super.handleInit(message);
-        setGossipNodes();
+        overlay.init(nodeId, nodeIds);
+        Logger.info("Gossip nodes for node {} is {}", nodeId, overlay.eagerPeers());
+        Logger.info("Overlay {} expects {} msgs per op", overlay.getClass().getSimpleName(), overlay.msgsPerOp());
+        if (nodeIds.size() > 1) {
+            schedulePeriodic(this::sync, syncIntervalMs);
+        }
+        final String dataDir = System.getProperty("gossip.data.dir");
+        if (dataDir != null) {
+            openLog(Path.of(dataDir, nodeId));
+        }
     }
 
-    @Override
-    public void handle(Message message) {
-        switch (message.body.getString("type", null)) {
-            case "broadcast":
-                handleBroadcast(message);
-                break;
-            case "gossip":
-                handleGossip(message);
-                break;
-            case "areyouthere":
-                handleAreYouThere(message);
-                break;
-            case "read":
-                handleRead(message);
-                break;
-            case "topology":
-                handleTopology(message);
-                break;
-            default:
-                throw new RuntimeException("unhandled message type: " + message.body.getString("type", null));
+    // Recover whatever we held before a restart, then log new values as we see them.
+    private void openLog(Path dir) {
+        final long start = System.nanoTime();
+        try {
+            log = LongSetLog.open(dir, messages, Integer.getInteger("gossip.wal.segment.bytes", 16 << 20),
+                    Long.getLong("gossip.wal.commit.ms", 2), Long.getLong("gossip.snapshot.ms", 10_000));
+        } catch (IOException e) {
+            Logger.error("Running without persistence, could not open {}", e);
+            return;
+        }
+        messages.forEach(seen::add);
+        Logger.info("Recovered {} values in {} ms", messages.size(), (System.nanoTime() - start) / 1_000_000);
+        final LongSetLog opened = log;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                opened.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        if (messages.size() > 0 && nodeIds.size() > 1) {
+            // Only what arrived while we were down is missing, fetch it now rather than at the next sync.
+            execute(this::sync);
         }
     }
 
     private void handleTopology(Message message) {
-        reply(message, topologyResponse);
+        Map<String, List<String>> topology = new HashMap<>();
+        for (JsonObject.Member member : message.body().get("topology").asObject()) {
+            List<String> neighbours = new ArrayList<>();
+            member.getValue().asArray().forEach(peer -> neighbours.add(peer.asString()));
+            topology.put(member.getName(), neighbours);
+        }
+        overlay.setTopology(topology);
+        Logger.info("Gossip nodes for node {} is {}", nodeId, overlay.eagerPeers());
+        reply(message, TOPOLOGY_OK);
     }
 
     private void handleBroadcast(Message message) {
         // Ack first
-        reply(message, broadcastResponse);
+        reply(message, BROADCAST_OK);
         doHandleGossip(message);
     }
 
     private void handleGossip(Message message) {
         // Ack first
-        reply(message, gossipResponse);
+        reply(message, GOSSIP_OK);
 
-        // Update that we have heard from the node
-        communicationLog.put(message.src, System.currentTimeMillis());
+        // We just heard from the node, so it's reachable: no point waiting out the backoff.
+        if (pendingMessages.containsKey(message.src)) {
+            execute(() -> sendPending(message.src));
+        }
 
-        doHandleGossip(message);
+        // A gossip carries a batch of values, a single "message" is still accepted from older peers.
+        JsonValue batch = message.body().get("messages");
+        if (batch == null) {
+            doHandleGossip(message);
+            return;
+        }
+        final long[] vals = PackedLongs.read(batch);
+        boolean anyNew = false;
+        for (long val : vals) {
+            anyNew |= doHandleGossip(message.src, val);
+        }
+        // Everything was a duplicate, this link is redundant for us.
+        if (!anyNew && vals.length > 0 && overlay.prune(message.src)) {
+            send(message.src, new JsonObject().add("type", "prune"));
+        }
     }
 
     private void doHandleGossip(Message message) {
-        long val = message.body.getLong("message", -1);
+        doHandleGossip(null, message.body().getLong("message", -1));
+    }
 
+    // Record a value that came from `from` (null for a client) and pass it on if it's new.
+    private boolean doHandleGossip(String from, long val) {
         // Check if message is already seen
-        if (messages.get(val) != null) {
+        if (!messages.add(val)) {
 //            Logger.log("Received duplicate message: " + val);
-            return;
+            return false;
+        }
+        seen.add(val);
+        final LongSetLog l = log;
+        if (l != null) {
+            l.append(val);
+        }
+
+//        int round = message.body().getInt("round", 0);
+
+        preferredNodes.keySet().forEach(node -> enqueue(node, val));
+        for (String node : overlay.eagerPeers()) {
+            if (!node.equals(from)) {
+                enqueue(node, val);
+            }
+        }
+        for (String node : overlay.lazyPeers()) {
+            if (!node.equals(from)) {
+                announce(node, val);
+            }
         }
-        messages.put(val, true);
+        return true;
+    }
 
-//        int round = message.body.getInt("round", 0);
+    // A lazy peer told us what it has. Give the eager path a chance to deliver, then pull what's still missing.
+    private void handleIHave(Message message) {
+        List<Long> announced = new ArrayList<>();
+        for (long val : PackedLongs.read(message.body().get("messages"))) {
+            if (!messages.contains(val)) {
+                announced.add(val);
+            }
+        }
+        if (announced.isEmpty()) {
+            return;
+        }
+        String src = message.src;
+        schedule(() -> {
+            List<Long> missing = new ArrayList<>();
+            for (long val : announced) {
+                if (!messages.contains(val)) {
+                    missing.add(val);
+                }
+            }
+            if (!missing.isEmpty()) {
+                overlay.graft(src);
+                send(src, new GossipMessage("graft", missing).toJson());
+            }
+        }, peer(src).timeoutMs());
+    }
 
-        preferredNodes.keySet().forEach(node -> sendMessage(node, val));
-        gossipNodes.forEach(node -> sendMessage(node, val));
+    // A peer is missing values we announced: push them and keep pushing to it eagerly.
+    private void handleGraft(Message message) {
+        overlay.graft(message.src);
+        List<Long> wanted = new ArrayList<>();
+        for (long val : PackedLongs.read(message.body().get("messages"))) {
+            if (messages.contains(val)) {
+                wanted.add(val);
+            }
+        }
+        if (!wanted.isEmpty()) {
+            sendMessage(message.src, wanted);
+        }
     }
 
     private void handleAreYouThere(Message message) {
-        Logger.log("Received are-you-there from node:" + message.src);
+        Logger.debug("Received are-you-there from node: {}", message.src);
         preferredNodes.put(message.src, true);
-        reply(message, areYouThereResponse);
+        reply(message, AREYOUTHERE_OK);
     }
 
+    // Everything we hold, or with since_version only what arrived after that version, plus the
+    // version to pass next time.
     private void handleRead(Message message) {
-        Logger.log("Received read from client:" + message.src);
-        reply(message, new ReadResponse());
+        Logger.debug("Received read from client: {}", message.src);
+        final JsonValue since = message.body().get("since_version");
+        final SeenLog.Read read = seen.read(since == null ? SeenLog.ALL : since.asLong());
+        final StringBuilder members = new StringBuilder(read.length() + 64);
+        members.append("\"type\":\"read_ok\",\"messages\":[");
+        read.appendValues(members);
+        members.append("],\"version\":").append(read.version());
+        replySerialized(message, members);
     }
 
-    private void sendMessage(String dest, long val) {
-//        Logger.log("sending message:  " + val + " to node: " + dest);
-        CompletableFuture<JsonObject> f = rpc(dest, new GossipMessage(val).toJson());
+    // Queue a value for the destination, the batch goes out once it is full or the flush window elapses.
+    private void enqueue(String dest, long val) {
+        final AtomicReference<ArrayList<Long>> full = new AtomicReference<>();
+        outbox.compute(dest, (k, vals) -> {
+            if (vals == null) {
+                final ArrayList<Long> batch = new ArrayList<>();
+                schedule(() -> flush(dest, batch), flushWindowMs);
+                vals = batch;
+            }
+            vals.add(val);
+            if (vals.size() >= maxBatchSize) {
+                full.set(vals);
+                return null;
+            }
+            return vals;
+        });
+        if (full.get() != null) {
+            sendMessage(dest, full.get());
+        }
+    }
+
+    // Send `batch` once its flush window is up. Each batch has its own timer: if it filled up and went out
+    // early, the batch queued after it is left to wait out its own window.
+    private void flush(String dest, ArrayList<Long> batch) {
+        final AtomicBoolean due = new AtomicBoolean();
+        outbox.computeIfPresent(dest, (k, vals) -> {
+            if (vals != batch) {
+                return vals;
+            }
+            due.set(true);
+            return null;
+        });
+        if (due.get()) {
+            sendMessage(dest, batch);
+        }
+    }
+
+    // Queue a value to be announced to a lazy peer. Announcements are not urgent, so they wait a few
+    // flush windows to batch up, and go out one way without an ack.
+    private void announce(String dest, long val) {
+        announcements.compute(dest, (k, vals) -> {
+            if (vals == null) {
+                vals = new ArrayList<>();
+                schedule(() -> flushAnnouncements(dest), 4 * flushWindowMs);
+            }
+            vals.add(val);
+            return vals;
+        });
+    }
+
+    private void flushAnnouncements(String dest) {
+        ArrayList<Long> vals = announcements.remove(dest);
+        if (vals != null && !vals.isEmpty()) {
+            send(dest, new GossipMessage("ihave", vals).toJson());
+        }
+    }
+
+    private void addPending(String dest, List<Long> vals) {
+        pendingMessages.compute(dest, (k, msgs) -> {
+            if (msgs == null) {
+                msgs = new ArrayList<>();
+            }
+            if (msgs.size() + vals.size() > maxPendingPerPeer) {
+                // Anti-entropy will pick these up once the peer is reachable again.
+                pendingOverflow.add(vals.size());
+                return msgs;
+            }
+            msgs.addAll(vals);
+            return msgs;
+        });
+        scheduleRetry(dest);
+    }
+
+    private void scheduleRetry(String dest) {
+        if (!retryScheduled.add(dest)) {
+            return;
+        }
+        int attempt = retryAttempts.merge(dest, 1, Integer::sum) - 1;
+        schedule(() -> {
+            retryScheduled.remove(dest);
+            sendPending(dest);
+        }, retryBackoff.delayMs(attempt, random()));
+    }
+
+    // Send a batch of values in one RPC, the ack covers the whole batch.
+    private void sendMessage(String dest, List<Long> vals) {
+//        Logger.log("sending messages:  " + vals + " to node: " + dest);
+        CompletableFuture<JsonObject> f = rpc(dest, new GossipMessage("gossip", vals).toJson());
 
         f.handle((result, exception) -> {
             if (exception != null) {
                 Error error = (Error) exception;
-                Logger.log("RPC call completed with error" + error.toJson());
+                if (error.code == 0) {
+                    Logger.warn(RPC_FAILURE_LOG, "Timeout on {} messages to node: {}", vals.size(), dest);
+                } else {
+                    Logger.warn(RPC_FAILURE_LOG, "RPC call to {} completed with error {}", dest, error);
+                }
                 if (error.code == 0 || error.code == 11) {
-                    pendingMessages.compute(dest, (k, msgs) -> {
-                        if (msgs == null) {
-                            msgs = new ArrayList<>();
-                        }
-                        msgs.add(val);
-                        return msgs;
-                    });
+                    addPending(dest, vals);
                 }
             } else {
                 // Trigger pending message handling
-                ArrayList<Long> pendingMessagesForNode = pendingMessages.get(dest);
-                if (pendingMessagesForNode != null && pendingMessagesForNode.size() > 0) {
-                    // Remove to prevent duplicate processing
-                    pendingMessages.remove(dest);
-
-                    pendingMessageExecutor.execute(() -> {
-                        pendingMessagesForNode.forEach(msg -> sendMessage(dest, msg));
-                    });
-                }
+                retryAttempts.remove(dest);
+                execute(() -> sendPending(dest));
             }
             return null;
         });
+    }
+
+    // Resend everything pending for a destination, removing it first to prevent duplicate processing.
+    private void sendPending(String dest) {
+        ArrayList<Long> pendingMessagesForNode = pendingMessages.remove(dest);
+        if (pendingMessagesForNode == null) {
+            return;
+        }
+        for (int i = 0; i < pendingMessagesForNode.size(); i += maxBatchSize) {
+            sendMessage(dest, pendingMessagesForNode.subList(i,
+                    Math.min(i + maxBatchSize, pendingMessagesForNode.size())));
+        }
+    }
+
+    // Anti-entropy //////////////////////////////////////////////////////////
+
+    // Send our digest to a random peer. The reply carries whatever the peer has in chunks where we
+    // differ, and tells us which chunks to push back, so both sides converge in one exchange
+    // regardless of how many individual sends failed in between.
+    private void sync() {
+        String peer;
+        do {
+            peer = nodeIds.get(random().nextInt(nodeIds.size()));
+        } while (peer.equals(nodeId));
+        final String dest = peer;
+
+        rpc(dest, new SyncMessage(messages.chunkKeys()).toJson()).thenAccept(body -> {
+            for (long val : PackedLongs.read(body.get("messages"))) {
+                doHandleGossip(dest, val);
+            }
+            List<Long> missing = new ArrayList<>();
+            for (long chunk : PackedLongs.read(body.get("want"))) {
+                messages.forEachInChunk(chunk, missing::add);
+            }
+            for (int i = 0; i < missing.size(); i += maxBatchSize) {
+                sendMessage(dest, missing.subList(i, Math.min(i + maxBatchSize, missing.size())));
+            }
+        });
+    }
+
+    private void handleSync(Message message) {
+        long[] chunks = PackedLongs.read(message.body().get("chunks"));
+        long[] hashes = PackedLongs.read(message.body().get("hashes"));
+        Map<Long, Long> theirs = new HashMap<>();
+        for (int i = 0; i < chunks.length; i++) {
+            theirs.put(chunks[i], hashes[i]);
+        }
+
+        LongStream.Builder values = LongStream.builder();
+        LongStream.Builder want = LongStream.builder();
+        for (long chunk : messages.chunkKeys()) {
+            Long theirHash = theirs.remove(chunk);
+            if (theirHash != null && theirHash == messages.chunkHash(chunk)) {
+                continue;
+            }
+            messages.forEachInChunk(chunk, values);
+            if (theirHash != null) {
+                want.add(chunk);
+            }
+        }
+        // Chunks only they have
+        theirs.keySet().forEach(want::add);
 
-        // Add to timeout detector
-        timeoutExecutor.schedule(() -> {
-            if (!f.isDone()) {
-                Logger.log("Timeout on message: " + val + " to node: " + dest);
-                pendingMessages.compute(dest, (k, msgs) -> {
-                    if (msgs == null) {
-                        msgs = new ArrayList<>();
-                    }
-                    msgs.add(val);
-                    return msgs;
-                });
-            }
-        }, 10, TimeUnit.MILLISECONDS);
+        reply(message, new SyncResponse(values.build().toArray(), want.build().toArray()));
     }
 }
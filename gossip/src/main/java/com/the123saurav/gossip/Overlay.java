@@ -0,0 +1,53 @@
+package com.the123saurav.gossip;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+// Decides which peers a node pushes newly seen values to.
+// Overlays trade latency against messages: denser graphs reach everyone in fewer hops but send
+// more copies of each value. Each reports the inter-node messages it expects per broadcast (sends
+// plus acks, before batching) so a deployment can pick one with -Dgossip.overlay.
+public interface Overlay {
+    // Called once we know who we are and who else is in the cluster.
+    void init(String self, List<String> nodeIds);
+
+    // The topology maelstrom handed us, node to neighbours. Overlays are free to ignore it.
+    default void setTopology(Map<String, List<String>> topology) {
+    }
+
+    // Peers that get new values pushed in full. The node a value came from is skipped by the caller.
+    Collection<String> eagerPeers();
+
+    // Peers that only get told which values we have, and pull the ones they are missing.
+    default Collection<String> lazyPeers() {
+        return List.of();
+    }
+
+    // A peer sent us nothing but values we already had. Returns true if it should be told to prune us.
+    default boolean prune(String peer) {
+        return false;
+    }
+
+    // A peer has values we are missing, or asked for ours: push to it eagerly from now on.
+    default void graft(String peer) {
+    }
+
+    // Expected inter-node messages per broadcast for the cluster we were initialised with.
+    double msgsPerOp();
+
+    static Overlay named(String name) {
+        switch (name) {
+            case "topology":
+                return new GivenTopologyOverlay();
+            case "tree":
+                return new SpanningTreeOverlay(Integer.getInteger("gossip.tree.fanout", 4));
+            case "chord":
+                return new ChordOverlay();
+            case "plumtree":
+                return new PlumtreeOverlay(Integer.getInteger("gossip.tree.fanout", 4));
+            default:
+                throw new IllegalArgumentException("unknown overlay: " + name);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.the123saurav.gossip;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Plumtree style eager/lazy push. Values are pushed in full over a spanning tree (the eager peers) and
+// only announced to the chord fingers outside it (the lazy peers). A peer that sends us nothing new is
+// pruned to lazy; a lazy peer that announces something we never received is grafted back to eager.
+// In steady state this costs about as much as the tree, and the lazy links heal it around lost
+// messages and partitions.
+public class PlumtreeOverlay implements Overlay {
+    private final int fanout;
+    private int numNodes;
+    private final Set<String> eager = ConcurrentHashMap.newKeySet();
+    private final Set<String> lazy = ConcurrentHashMap.newKeySet();
+
+    public PlumtreeOverlay(int fanout) {
+        this.fanout = fanout;
+    }
+
+    @Override
+    public void init(String self, List<String> nodeIds) {
+        this.numNodes = nodeIds.size();
+        int index = nodeIds.indexOf(self);
+        eager.addAll(SpanningTreeOverlay.treeNeighbours(index, nodeIds, fanout));
+        for (String finger : ChordOverlay.fingers(index, nodeIds)) {
+            if (!eager.contains(finger)) {
+                lazy.add(finger);
+            }
+        }
+    }
+
+    @Override
+    public Collection<String> eagerPeers() {
+        return eager;
+    }
+
+    @Override
+    public Collection<String> lazyPeers() {
+        return lazy;
+    }
+
+    @Override
+    public boolean prune(String peer) {
+        // Never prune our last eager link.
+        if (eager.size() > 1 && eager.remove(peer)) {
+            lazy.add(peer);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void graft(String peer) {
+        if (eager.add(peer)) {
+            lazy.remove(peer);
+        }
+    }
+
+    @Override
+    public double msgsPerOp() {
+        // Tree pushes with their acks, plus one announcement per lazy link (before batching).
+        return 2.0 * (numNodes - 1) + (double) numNodes * lazy.size();
+    }
+}
@@ -0,0 +1,107 @@
+package com.the123saurav.gossip;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Every value we've seen, in the order we first saw it, for answering reads.
+// A version is how many values had been added, tagged with an epoch picked at random when this log is
+// created. A client holding a version from this epoch is missing exactly the values from that position
+// onwards. One from any other epoch, e.g. from before a restart, when recovery may have put values back
+// in a different order, says nothing about what the client has, so it gets everything.
+// The comma separated text of the values is kept in blocks of BLOCK values. A full block's text never
+// changes, so it is built once; only the last, partial block is rebuilt, and only when a read finds the
+// version has moved on. Reads take the blocks under the lock and copy them into the reply outside it.
+class SeenLog {
+    // Any version outside this log's epoch, asking for everything.
+    static final long ALL = -1;
+
+    private static final int BLOCK = 1024;
+    private static final int POSITION_BITS = 32;
+
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, 1L << 21) << POSITION_BITS;
+
+    private long[] values = new long[1024];
+    private int size = 0;
+
+    // Text of values [i * BLOCK, (i + 1) * BLOCK) for i < fullBlocks. Entries are never changed once set,
+    // so a reader holding the array can use them after the lock is released.
+    private String[] blocks = new String[16];
+    private int fullBlocks = 0;
+    // Text of the values after the last full block, as of position tailUpTo.
+    private String tail = "";
+    private int tailUpTo = 0;
+
+    // What a read sends back: the version it reflects and the values, as comma separated text in parts.
+    record Read(long version, String[] parts, int count, String tail) {
+        int length() {
+            int n = tail.length() + count;
+            for (int i = 0; i < count; i++) {
+                n += parts[i].length();
+            }
+            return n;
+        }
+
+        // Append the values as "1,2,3".
+        void appendValues(StringBuilder sb) {
+            boolean first = true;
+            for (int i = 0; i < count; i++) {
+                first = appendPart(sb, parts[i], first);
+            }
+            appendPart(sb, tail, first);
+        }
+
+        private static boolean appendPart(StringBuilder sb, String part, boolean first) {
+            if (part.isEmpty()) {
+                return first;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            sb.append(part);
+            return false;
+        }
+    }
+
+    synchronized void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    // Everything, or with a version from this epoch only the values added since.
+    synchronized Read read(long since) {
+        final long version = epoch | size;
+        final int from = (int) since;
+        if ((since & ~((1L << POSITION_BITS) - 1)) == epoch && from >= 0 && from <= size) {
+            return new Read(version, new String[0], 0, text(from, size));
+        }
+        freezeBlocks();
+        if (tailUpTo != size) {
+            tail = text(fullBlocks * BLOCK, size);
+            tailUpTo = size;
+        }
+        return new Read(version, blocks, fullBlocks, tail);
+    }
+
+    private void freezeBlocks() {
+        while ((fullBlocks + 1) * BLOCK <= size) {
+            if (fullBlocks == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blocks.length * 2);
+            }
+            blocks[fullBlocks] = text(fullBlocks * BLOCK, (fullBlocks + 1) * BLOCK);
+            fullBlocks++;
+        }
+    }
+
+    private String text(int from, int to) {
+        final StringBuilder sb = new StringBuilder((to - from) * 8);
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                sb.append(',');
+            }
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,46 @@
+package com.the123saurav.gossip;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// A k-ary tree over the sorted node list: node i's parent is (i - 1) / k and its children are
+// k * i + 1 .. k * i + k. Each value crosses every edge exactly once, the minimum possible, at the
+// cost of log_k(n) hops of latency and no redundancy - a lost message is only repaired by retries
+// or anti-entropy.
+public class SpanningTreeOverlay implements Overlay {
+    private final int fanout;
+    private int numNodes;
+    private List<String> neighbours = List.of();
+
+    public SpanningTreeOverlay(int fanout) {
+        this.fanout = fanout;
+    }
+
+    @Override
+    public void init(String self, List<String> nodeIds) {
+        this.numNodes = nodeIds.size();
+        this.neighbours = treeNeighbours(nodeIds.indexOf(self), nodeIds, fanout);
+    }
+
+    static List<String> treeNeighbours(int index, List<String> nodeIds, int fanout) {
+        List<String> peers = new ArrayList<>();
+        if (index > 0) {
+            peers.add(nodeIds.get((index - 1) / fanout));
+        }
+        for (int child = fanout * index + 1; child <= fanout * index + fanout && child < nodeIds.size(); child++) {
+            peers.add(nodeIds.get(child));
+        }
+        return peers;
+    }
+
+    @Override
+    public Collection<String> eagerPeers() {
+        return neighbours;
+    }
+
+    @Override
+    public double msgsPerOp() {
+        return 2.0 * (numNodes - 1);
+    }
+}
@@ -0,0 +1,96 @@
+package com.the123saurav.gossip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class SeenLogTest {
+    @Test
+    public void readsEverythingInArrivalOrder() {
+        final SeenLog log = new SeenLog();
+        assertEquals("", text(log.read(SeenLog.ALL)));
+        log.add(5);
+        log.add(-1);
+        log.add(3);
+        assertEquals("5,-1,3", text(log.read(SeenLog.ALL)));
+    }
+
+    @Test
+    public void readsOnlyWhatWasAddedSinceAVersion() {
+        final SeenLog log = new SeenLog();
+        log.add(1);
+        log.add(2);
+        final long version = log.read(SeenLog.ALL).version();
+        assertEquals("", text(log.read(version)));
+
+        log.add(3);
+        log.add(4);
+        final SeenLog.Read delta = log.read(version);
+        assertEquals("3,4", text(delta));
+        assertNotEquals(version, delta.version());
+        assertEquals("", text(log.read(delta.version())));
+    }
+
+    @Test
+    public void aVersionFromAnotherLogReadsEverything() {
+        // Two logs stand in for one node before and after a restart.
+        final SeenLog before = new SeenLog();
+        before.add(1);
+        before.add(2);
+        final long version = before.read(SeenLog.ALL).version();
+
+        final SeenLog after = new SeenLog();
+        after.add(2);
+        after.add(1);
+        after.add(3);
+        assertEquals("2,1,3", text(after.read(version)));
+    }
+
+    @Test
+    public void aVersionPastTheEndReadsEverything() {
+        final SeenLog log = new SeenLog();
+        log.add(1);
+        final long version = log.read(SeenLog.ALL).version();
+        assertEquals("1", text(log.read(version + 10)));
+        assertEquals("1", text(log.read(12345)));
+    }
+
+    @Test
+    public void fullReadsSpanFrozenBlocks() {
+        final SeenLog log = new SeenLog();
+        final StringBuilder expected = new StringBuilder();
+        for (long v = 0; v < 5000; v++) {
+            log.add(v * 3);
+            expected.append(v == 0 ? "" : ",").append(v * 3);
+            // Read at uneven points so blocks get frozen while the tail is both empty and not.
+            if (v % 997 == 0 || v == 1023 || v == 2047) {
+                assertEquals(expected.toString(), text(log.read(SeenLog.ALL)));
+            }
+        }
+        final SeenLog.Read read = log.read(SeenLog.ALL);
+        assertEquals(expected.toString(), text(read));
+        assertEquals(expected.length(), read.length());
+    }
+
+    @Test
+    public void anEarlierReadIsUnchangedByLaterAdds() {
+        final SeenLog log = new SeenLog();
+        for (long v = 0; v < 2000; v++) {
+            log.add(v);
+        }
+        final SeenLog.Read read = log.read(SeenLog.ALL);
+        final String before = text(read);
+        for (long v = 2000; v < 5000; v++) {
+            log.add(v);
+        }
+        log.read(SeenLog.ALL);
+        assertEquals(before, text(read));
+    }
+
+    private static String text(SeenLog.Read read) {
+        final StringBuilder sb = new StringBuilder();
+        read.appendValues(sb);
+        return sb.toString();
+    }
+}
@@ -2,19 +2,26 @@ package com.the123saurav.guid;
 
 import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
+import com.the123saurav.common.Error;
 import com.the123saurav.common.IJson;
 import com.the123saurav.common.Message;
 import com.the123saurav.common.Node;
 import lombok.RequiredArgsConstructor;
 
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class GuidHandler extends Node {
 
-    private long currMs;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    // Most IDs a single generate_batch can lease, i.e. one millisecond's worth.
+    static final int MAX_BATCH = 1 << SEQUENCE_BITS;
+
     private long nodeIdNumberShifted;
-    private AtomicInteger counter = new AtomicInteger();
+    // The last ID handed out, minus the node bits: ms << 12 | sequence. Bumping it by one carries a
+    // full sequence into the next millisecond, so under load we borrow from the future instead of
+    // wrapping and repeating IDs; the clock catches up once load drops.
+    private final AtomicLong last = new AtomicLong();
 
     /*
       1 bit for sign  - so we have 63 bits of the long.
@@ -48,30 +55,74 @@ public class GuidHandler extends Node {
         }
     }
 
+    // IDs start, start + 1, ..., start + count - 1 are all ours.
+    @RequiredArgsConstructor
+    class GenerateBatchResponse implements IJson {
+        private static final String TYPE = "generate_batch_ok";
+
+        private final long start;
+        private final int count;
+
+        @Override
+        public JsonValue toJson() {
+            JsonObject jsonObject = new JsonObject();
+            jsonObject.add("type", TYPE);
+            jsonObject.add("start", start);
+            jsonObject.add("count", count);
+            return jsonObject;
+        }
+    }
+
     @Override
     public void handleInit(Message message) {
         super.handleInit(message);
-        nodeIdNumberShifted = nodeIdNumber << 12;
+        nodeIdNumberShifted = nodeIdNumber << SEQUENCE_BITS;
     }
 
-    @Override
-    public void handle(Message message) {
+    public GuidHandler() {
+        on("generate", this::handleGenerate);
+        on("generate_batch", this::handleGenerateBatch);
+    }
+
+    private void handleGenerate(Message message) {
+        reply(message, new GenerateGuidResponse(toId(lease(1))));
+    }
+
+    private void handleGenerateBatch(Message message) {
+        final int count = message.body().getInt("count", 0);
+        if (count < 1 || count > MAX_BATCH) {
+            throw Error.malformedRequest("count must be between 1 and " + MAX_BATCH + ", got " + count);
+        }
+        reply(message, new GenerateBatchResponse(toId(lease(count)), count));
+    }
+
+    // Claim `count` consecutive sequence numbers within one millisecond and return the first.
+    long lease(int count) {
         /*
          Its okay, as long as time doesn't jump back which NTP guarantees,
          not using System.nanoTime as that can be reset across runs
          (although that's not the aim of this and will still pass the test
          , but wanted even this toy to be meaningful)
          */
-        long nowMs = System.currentTimeMillis();
-        if (nowMs > currMs) {
-            currMs = nowMs;
-            counter.set(0);
+        final long nowMs = System.currentTimeMillis();
+        while (true) {
+            final long prev = last.get();
+            long first = prev + 1;
+            if ((first >>> SEQUENCE_BITS) < nowMs) {
+                first = nowMs << SEQUENCE_BITS;
+            } else if ((first & SEQUENCE_MASK) + count > MAX_BATCH) {
+                // Doesn't fit in what's left of this millisecond, start the next one.
+                first = ((first >>> SEQUENCE_BITS) + 1) << SEQUENCE_BITS;
+            }
+            if (last.compareAndSet(prev, first + count - 1)) {
+                return first;
+            }
         }
+    }
+
+    // Splice the node number in between the millisecond and the sequence.
+    private long toId(long packed) {
         // Do not stomp sign bit as its already set correctly(+ve)
-        nowMs = nowMs << 20;
-        nowMs = nowMs | nodeIdNumberShifted;
-        // get only last 12 bits
-        nowMs = nowMs | (counter.getAndIncrement() & 0xFFFL);
-        reply(message, new GenerateGuidResponse(nowMs));
+        return ((packed >>> SEQUENCE_BITS) << 20) | nodeIdNumberShifted | (packed & SEQUENCE_MASK);
     }
 }
@@ -0,0 +1,302 @@
+package com.the123saurav.kafka;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.the123saurav.common.Error;
+import com.the123saurav.common.IJson;
+import com.the123saurav.common.Logger;
+import com.the123saurav.common.Message;
+import com.the123saurav.common.MessageCodec;
+import com.the123saurav.common.Node;
+import com.the123saurav.common.ReplyTemplate;
+import lombok.RequiredArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Maelstrom's kafka workload: append-only logs per key with committed consumer offsets.
+// Every key has an owner, picked by hashing the key over the cluster. The owner assigns offsets and
+// holds the committed offset; sends and commits reaching another node are forwarded to it. Each node
+// keeps a SegmentedLog per key, and the owner copies new records to every follower in batches: every
+// `replicateIntervalMs`, each follower gets one RPC with, per key, the records past what it last
+// confirmed holding. Followers append them in order and reply with how far they now are, so lost or
+// reordered batches are simply covered by the next one.
+// Polls are answered from the local log on any node. A follower may be behind but only ever returns a
+// gapless prefix, so it never skips a message a client has been acked for.
+public class KafkaHandler extends Node {
+
+    private static final ReplyTemplate COMMIT_OFFSETS_OK = ReplyTemplate.ofType("commit_offsets_ok");
+
+    private final ConcurrentHashMap<String, SegmentedLog> logs = new ConcurrentHashMap<>();
+    // Committed offsets of the keys we own.
+    private final ConcurrentHashMap<String, Long> committed = new ConcurrentHashMap<>();
+    // Follower -> key -> the next offset it needs from us.
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Long>> replicated = new ConcurrentHashMap<>();
+    // Followers with a replicate RPC outstanding, so a slow one gets one batch at a time.
+    private final ConcurrentHashMap<String, Boolean> inFlight = new ConcurrentHashMap<>();
+
+    private final long replicateIntervalMs;
+    private final int maxPoll;
+    private final int maxReplicate;
+
+    public KafkaHandler() {
+        this(Long.getLong("kafka.replicate.ms", 5), Integer.getInteger("kafka.poll.max", 1000),
+                Integer.getInteger("kafka.replicate.max", 4096));
+    }
+
+    public KafkaHandler(long replicateIntervalMs, int maxPoll, int maxReplicate) {
+        this.replicateIntervalMs = replicateIntervalMs;
+        this.maxPoll = maxPoll;
+        this.maxReplicate = maxReplicate;
+
+        on("send", this::handleSend);
+        on("poll", this::handlePoll);
+        on("commit_offsets", this::handleCommitOffsets);
+        on("list_committed_offsets", this::handleListCommittedOffsets);
+        on("replicate", this::handleReplicate);
+
+        metrics.gauge("kafka.keys", logs::size);
+    }
+
+    @RequiredArgsConstructor
+    class SendResponse implements IJson {
+        private static final String TYPE = "send_ok";
+
+        private final long offset;
+
+        @Override
+        public JsonValue toJson() {
+            JsonObject jsonObject = new JsonObject();
+            jsonObject.add("type", TYPE);
+            jsonObject.add("offset", offset);
+            return jsonObject;
+        }
+    }
+
+    @RequiredArgsConstructor
+    class ListCommittedOffsetsResponse implements IJson {
+        private static final String TYPE = "list_committed_offsets_ok";
+
+        private final JsonObject offsets;
+
+        @Override
+        public JsonValue toJson() {
+            JsonObject jsonObject = new JsonObject();
+            jsonObject.add("type", TYPE);
+            jsonObject.add("offsets", offsets);
+            return jsonObject;
+        }
+    }
+
+    @Override
+    protected void handleInit(Message message) {
+        super.handleInit(message);
+        for (String peer : nodeIds) {
+            if (!peer.equals(nodeId)) {
+                replicated.put(peer, new ConcurrentHashMap<>());
+            }
+        }
+        if (!replicated.isEmpty()) {
+            schedulePeriodic(this::replicate, replicateIntervalMs);
+        }
+    }
+
+    private String owner(String key) {
+        return nodeIds.get(Math.floorMod(key.hashCode(), nodeIds.size()));
+    }
+
+    private SegmentedLog log(String key) {
+        return logs.computeIfAbsent(key, k -> new SegmentedLog());
+    }
+
+    private void handleSend(Message message) {
+        final JsonObject body = message.body();
+        final String key = body.getString("key", null);
+        final String owner = owner(key);
+        if (!owner.equals(nodeId)) {
+            forward(owner, message);
+            return;
+        }
+        final long offset = log(key).append(body.get("msg").toString().getBytes(StandardCharsets.UTF_8));
+        reply(message, new SendResponse(offset));
+    }
+
+    // Pass a request on to the node that owns it and relay whatever comes back. Errors go back as they
+    // are: a timeout stays indefinite, since the owner may have appended the message before going quiet.
+    private void forward(String owner, Message message) {
+        rpc(owner, message.body()).whenComplete((body, e) -> {
+            if (e != null) {
+                reply(message, (Error) e);
+            } else {
+                final JsonObject relayed = new JsonObject().merge(body);
+                relayed.remove("msg_id");
+                relayed.remove("in_reply_to");
+                reply(message, relayed);
+            }
+        });
+    }
+
+    // Written straight from the logs' buffers: {"k1": [[0, 9], [1, 5]], ...}
+    private void handlePoll(Message message) {
+        final StringBuilder members = new StringBuilder(256);
+        members.append("\"type\":\"poll_ok\",\"msgs\":{");
+        boolean firstKey = true;
+        for (JsonObject.Member member : message.body().get("offsets").asObject()) {
+            final SegmentedLog log = logs.get(member.getName());
+            if (log == null) {
+                continue;
+            }
+            if (!firstKey) {
+                members.append(',');
+            }
+            firstKey = false;
+            MessageCodec.writeString(members, member.getName());
+            members.append(":[");
+            final int start = members.length();
+            log.read(member.getValue().asLong(), maxPoll, (offset, data, pos, len) -> {
+                if (members.length() > start) {
+                    members.append(',');
+                }
+                members.append('[').append(offset).append(',');
+                SegmentedLog.appendText(members, data, pos, len);
+                members.append(']');
+            });
+            members.append(']');
+        }
+        members.append('}');
+        replySerialized(message, members);
+    }
+
+    private void handleCommitOffsets(Message message) {
+        final Map<String, JsonObject> byOwner = new HashMap<>();
+        for (JsonObject.Member member : message.body().get("offsets").asObject()) {
+            final String owner = owner(member.getName());
+            if (owner.equals(nodeId)) {
+                committed.merge(member.getName(), member.getValue().asLong(), Math::max);
+            } else {
+                byOwner.computeIfAbsent(owner, o -> new JsonObject()).add(member.getName(), member.getValue());
+            }
+        }
+        final List<CompletableFuture<JsonObject>> forwarded = new ArrayList<>();
+        byOwner.forEach((owner, offsets) -> forwarded.add(
+                rpc(owner, new JsonObject().add("type", "commit_offsets").add("offsets", offsets))));
+        whenAll(message, forwarded, () -> reply(message, COMMIT_OFFSETS_OK));
+    }
+
+    private void handleListCommittedOffsets(Message message) {
+        final JsonObject offsets = new JsonObject();
+        final Map<String, JsonArray> byOwner = new HashMap<>();
+        for (JsonValue key : message.body().get("keys").asArray()) {
+            final String owner = owner(key.asString());
+            if (owner.equals(nodeId)) {
+                final Long offset = committed.get(key.asString());
+                if (offset != null) {
+                    offsets.add(key.asString(), offset);
+                }
+            } else {
+                byOwner.computeIfAbsent(owner, o -> new JsonArray()).add(key);
+            }
+        }
+        final List<CompletableFuture<JsonObject>> forwarded = new ArrayList<>();
+        byOwner.forEach((owner, keys) -> forwarded.add(
+                rpc(owner, new JsonObject().add("type", "list_committed_offsets").add("keys", keys))));
+        whenAll(message, forwarded, () -> {
+            for (CompletableFuture<JsonObject> f : forwarded) {
+                for (JsonObject.Member member : f.join().get("offsets").asObject()) {
+                    offsets.add(member.getName(), member.getValue());
+                }
+            }
+            reply(message, new ListCommittedOffsetsResponse(offsets));
+        });
+    }
+
+    // Run `then` once every forwarded request succeeds. Otherwise relay the failure the way forward() does:
+    // the owner's error as it is, or an indefinite timeout if it never answered, since it may have
+    // applied the request.
+    private void whenAll(Message message, List<CompletableFuture<JsonObject>> forwarded, Runnable then) {
+        CompletableFuture.allOf(forwarded.toArray(new CompletableFuture<?>[0])).whenComplete((v, e) -> {
+            if (e != null) {
+                final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                reply(message, cause instanceof Error error ? error : Error.crash("forwarding failed: " + cause));
+            } else {
+                then.run();
+            }
+        });
+    }
+
+    // Replication ////////////////////////////////////////////////////////////
+
+    // Send every follower that isn't busy the records it is missing, for all keys we own, in one RPC:
+    // {"type": "replicate", "logs": {"k1": {"from": 5, "msgs": [9, 5]}}}
+    private void replicate() {
+        replicated.forEach((follower, next) -> {
+            if (inFlight.putIfAbsent(follower, Boolean.TRUE) != null) {
+                return;
+            }
+            final StringBuilder members = new StringBuilder(256);
+            members.append("\"type\":\"replicate\",\"logs\":{");
+            final int start = members.length();
+            logs.forEach((key, log) -> {
+                final long from = next.getOrDefault(key, 0L);
+                if (from >= log.nextOffset() || !owner(key).equals(nodeId)) {
+                    return;
+                }
+                if (members.length() > start) {
+                    members.append(',');
+                }
+                MessageCodec.writeString(members, key);
+                members.append(":{\"from\":").append(from).append(",\"msgs\":[");
+                final int msgsStart = members.length();
+                log.read(from, maxReplicate, (offset, data, pos, len) -> {
+                    if (members.length() > msgsStart) {
+                        members.append(',');
+                    }
+                    SegmentedLog.appendText(members, data, pos, len);
+                });
+                members.append("]}");
+            });
+            if (members.length() == start) {
+                inFlight.remove(follower);
+                return;
+            }
+            members.append('}');
+            rpcSerialized(follower, members).whenComplete((body, e) -> {
+                inFlight.remove(follower);
+                if (e != null) {
+                    Logger.debug("Replicating to {} failed, resending next round: {}", follower, e);
+                    return;
+                }
+                for (JsonObject.Member member : body.get("next").asObject()) {
+                    next.merge(member.getName(), member.getValue().asLong(), Math::max);
+                }
+            });
+        });
+    }
+
+    // Append what the owner sent in order and tell it how far each log now goes.
+    private void handleReplicate(Message message) {
+        final JsonObject next = new JsonObject();
+        for (JsonObject.Member member : message.body().get("logs").asObject()) {
+            final SegmentedLog log = log(member.getName());
+            long offset = member.getValue().asObject().getLong("from", 0);
+            for (JsonValue msg : member.getValue().asObject().get("msgs").asArray()) {
+                if (offset >= log.nextOffset()) {
+                    if (!log.appendAt(offset, msg.toString().getBytes(StandardCharsets.UTF_8))) {
+                        // A gap: we missed an earlier batch, the owner will resend from where we are.
+                        break;
+                    }
+                }
+                offset++;
+            }
+            next.add(member.getName(), log.nextOffset());
+        }
+        reply(message, new JsonObject().add("type", "replicate_ok").add("next", next));
+    }
+}
@@ -0,0 +1,146 @@
+package com.the123saurav.kafka;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// One key's log: records with dense offsets starting at 0, stored off heap.
+// Records are length-prefixed byte strings (the message's JSON text) packed into direct buffer
+// segments, so millions of entries cost no objects on the heap and the GC never has to walk them.
+// Each segment keeps a sparse index with the position of every INDEX_INTERVAL-th record; a read finds
+// its segment by binary search on base offsets, jumps to the nearest indexed record below its start
+// and scans at most INDEX_INTERVAL - 1 records from there.
+// Appends are serialized by the log's lock. Reads take no lock: a record's bytes are written before
+// `next` moves past it, and readers never look past `next`.
+class SegmentedLog {
+    static final int SEGMENT_BYTES = 1 << 20;
+    static final int INDEX_INTERVAL = 64;
+
+    // Visits records in offset order, `len` bytes of `data` from `pos`.
+    interface RecordVisitor {
+        void visit(long offset, ByteBuffer data, int pos, int len);
+    }
+
+    private static final class Segment {
+        final long baseOffset;
+        final ByteBuffer data;
+        // Byte position of records baseOffset, baseOffset + INDEX_INTERVAL, ...
+        int[] index = new int[64];
+        int position = 0;
+        int count = 0;
+
+        Segment(long baseOffset, int bytes) {
+            this.baseOffset = baseOffset;
+            this.data = ByteBuffer.allocateDirect(bytes);
+        }
+    }
+
+    private volatile Segment[] segments = new Segment[0];
+    private volatile long next = 0;
+
+    // The offset the next record will get.
+    long nextOffset() {
+        return next;
+    }
+
+    // Append a record at the end of the log, returning its offset.
+    synchronized long append(byte[] record) {
+        final long offset = next;
+        write(offset, record);
+        next = offset + 1;
+        return offset;
+    }
+
+    // Append a replicated record, which must be the next one. Returns false if it isn't.
+    synchronized boolean appendAt(long offset, byte[] record) {
+        if (offset != next) {
+            return false;
+        }
+        write(offset, record);
+        next = offset + 1;
+        return true;
+    }
+
+    private void write(long offset, byte[] record) {
+        Segment[] segs = segments;
+        Segment seg = segs.length == 0 ? null : segs[segs.length - 1];
+        if (seg == null || seg.data.capacity() - seg.position < record.length + 4) {
+            seg = new Segment(offset, Math.max(SEGMENT_BYTES, record.length + 4));
+            segs = Arrays.copyOf(segs, segs.length + 1);
+            segs[segs.length - 1] = seg;
+            segments = segs;
+        }
+        if (seg.count % INDEX_INTERVAL == 0) {
+            final int slot = seg.count / INDEX_INTERVAL;
+            if (slot == seg.index.length) {
+                seg.index = Arrays.copyOf(seg.index, slot * 2);
+            }
+            seg.index[slot] = seg.position;
+        }
+        seg.data.putInt(seg.position, record.length);
+        seg.data.put(seg.position + 4, record);
+        seg.position += 4 + record.length;
+        seg.count++;
+    }
+
+    // Visit up to `max` records starting at `from`. Returns how many were visited.
+    int read(long from, int max, RecordVisitor visitor) {
+        final long end = Math.min(next, from + max);
+        final Segment[] segs = segments;
+        int s = find(segs, from);
+        if (s < 0) {
+            return 0;
+        }
+        int visited = 0;
+        long offset = from;
+        while (offset < end && s < segs.length) {
+            final Segment seg = segs[s];
+            final int rel = (int) (offset - seg.baseOffset);
+            int pos = seg.index[rel / INDEX_INTERVAL];
+            for (int i = rel - rel % INDEX_INTERVAL; i < rel; i++) {
+                pos += 4 + seg.data.getInt(pos);
+            }
+            final long segEnd = Math.min(end, seg.baseOffset + seg.count);
+            for (; offset < segEnd; offset++) {
+                final int len = seg.data.getInt(pos);
+                visitor.visit(offset, seg.data, pos + 4, len);
+                pos += 4 + len;
+                visited++;
+            }
+            s++;
+        }
+        return visited;
+    }
+
+    // Index of the segment holding `offset`, or -1 if it is out of range.
+    private static int find(Segment[] segs, long offset) {
+        int lo = 0;
+        int hi = segs.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (segs[mid].baseOffset <= offset) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // Append a record's bytes, which are JSON text and nearly always ASCII, to sb.
+    static void appendText(StringBuilder sb, ByteBuffer data, int pos, int len) {
+        for (int i = pos; i < pos + len; i++) {
+            if (data.get(i) < 0) {
+                final byte[] bytes = new byte[len];
+                data.get(pos, bytes);
+                sb.append(new String(bytes, StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        for (int i = pos; i < pos + len; i++) {
+            sb.append((char) data.get(i));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.the123saurav.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class SegmentedLogTest {
+    // About 1KB per record, so a segment holds a little over a thousand of them.
+    private static final int PAD = 1000;
+
+    @Test
+    public void readsNothingFromAnEmptyLog() {
+        final SegmentedLog log = new SegmentedLog();
+        assertEquals(0, log.nextOffset());
+        assertEquals(List.of(), read(log, 0, 10));
+    }
+
+    @Test
+    public void readsFromTheMiddleOfAnIndexInterval() {
+        final SegmentedLog log = new SegmentedLog();
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i, log.append(record(i, i % 7)));
+        }
+        for (long from : new long[]{0, 1, 63, 64, 65, 127, 200, 299}) {
+            final List<String> got = read(log, from, 10);
+            assertEquals(Math.min(10, 300 - from), got.size());
+            for (int i = 0; i < got.size(); i++) {
+                assertEquals(text(from + i, (int) (from + i) % 7), got.get(i));
+            }
+        }
+        assertEquals(List.of(), read(log, 300, 10));
+    }
+
+    @Test
+    public void readsAcrossSegmentBoundaries() {
+        final SegmentedLog log = new SegmentedLog();
+        final int count = 3 * SegmentedLog.SEGMENT_BYTES / (PAD + 16);
+        for (int i = 0; i < count; i++) {
+            log.append(record(i, PAD));
+        }
+        // Every read window that straddles a boundary, starting at each position in the interval.
+        int firstOfSecond = 0;
+        for (int used = 0; used + 4 + record(firstOfSecond, PAD).length <= SegmentedLog.SEGMENT_BYTES; firstOfSecond++) {
+            used += 4 + record(firstOfSecond, PAD).length;
+        }
+        for (long from = firstOfSecond - 70; from < firstOfSecond + 5; from++) {
+            final List<String> got = read(log, from, 100);
+            assertEquals(100, got.size());
+            for (int i = 0; i < got.size(); i++) {
+                assertEquals(text(from + i, PAD), got.get(i));
+            }
+        }
+        final List<String> all = read(log, 0, Integer.MAX_VALUE);
+        assertEquals(count, all.size());
+        assertEquals(text(count - 1, PAD), all.get(count - 1));
+    }
+
+    @Test
+    public void keepsRecordsLargerThanASegment() {
+        final SegmentedLog log = new SegmentedLog();
+        log.append(record(0, 10));
+        log.append(record(1, SegmentedLog.SEGMENT_BYTES * 2));
+        log.append(record(2, 10));
+
+        final List<String> got = read(log, 0, 10);
+        assertEquals(3, got.size());
+        assertEquals(text(0, 10), got.get(0));
+        assertEquals(text(1, SegmentedLog.SEGMENT_BYTES * 2), got.get(1));
+        assertEquals(text(2, 10), got.get(2));
+        assertEquals(List.of(text(2, 10)), read(log, 2, 10));
+    }
+
+    @Test
+    public void appendAtRefusesGaps() {
+        final SegmentedLog log = new SegmentedLog();
+        assertFalse(log.appendAt(1, record(1, 0)));
+        assertTrue(log.appendAt(0, record(0, 0)));
+        assertFalse(log.appendAt(0, record(0, 0)));
+        assertFalse(log.appendAt(5, record(5, 0)));
+        assertTrue(log.appendAt(1, record(1, 0)));
+        assertEquals(2, log.nextOffset());
+        assertEquals(List.of(text(0, 0), text(1, 0)), read(log, 0, 10));
+    }
+
+    @Test
+    public void readsWhileAppending() throws Exception {
+        final SegmentedLog log = new SegmentedLog();
+        final int count = 20_000;
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final Thread reader = new Thread(() -> {
+            while (log.nextOffset() < count && failure.get() == null) {
+                final long from = log.nextOffset() / 2;
+                final StringBuilder sb = new StringBuilder();
+                log.read(from, 500, (offset, data, pos, len) -> {
+                    sb.setLength(0);
+                    SegmentedLog.appendText(sb, data, pos, len);
+                    if (!sb.toString().equals(text(offset, (int) (offset % 300)))) {
+                        failure.compareAndSet(null, "offset " + offset + " read as " + sb);
+                    }
+                });
+            }
+        });
+        reader.start();
+        for (int i = 0; i < count; i++) {
+            log.append(record(i, i % 300));
+        }
+        reader.join();
+        assertEquals(null, failure.get());
+    }
+
+    private static List<String> read(SegmentedLog log, long from, int max) {
+        final List<String> records = new ArrayList<>();
+        final int visited = log.read(from, max, (offset, data, pos, len) -> {
+            assertEquals(from + records.size(), offset);
+            final StringBuilder sb = new StringBuilder();
+            SegmentedLog.appendText(sb, data, pos, len);
+            records.add(sb.toString());
+        });
+        assertEquals(records.size(), visited);
+        return records;
+    }
+
+    private static byte[] record(long offset, int pad) {
+        return text(offset, pad).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // The offset followed by `pad` filler characters, with a non-ASCII one now and then.
+    private static String text(long offset, int pad) {
+        return offset + ":" + (offset % 5 == 0 ? "é" : "x").repeat(pad);
+    }
+}
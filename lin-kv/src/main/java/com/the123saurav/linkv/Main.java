@@ -0,0 +1,9 @@
+package com.the123saurav.linkv;
+
+import com.the123saurav.common.NodeRuntime;
+
+public class Main {
+    public static void main(String[] args) {
+        NodeRuntime.run(new RaftHandler());
+    }
+}
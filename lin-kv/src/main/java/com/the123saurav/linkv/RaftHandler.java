@@ -0,0 +1,602 @@
+package com.the123saurav.linkv;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.the123saurav.common.Error;
+import com.the123saurav.common.IJson;
+import com.the123saurav.common.Logger;
+import com.the123saurav.common.Message;
+import com.the123saurav.common.Node;
+import com.the123saurav.common.ReplyTemplate;
+import lombok.RequiredArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Maelstrom's lin-kv workload: a linearizable key-value store with read, write and cas, replicated by Raft.
+// Everything Raft owns is guarded by `lock`; RPC replies and timer ticks take it like handlers do. It is a
+// ReentrantLock rather than a monitor because we send while holding it, and a virtual thread blocking
+// inside synchronized pins its carrier, which can starve the thread it is waiting on.
+// - Batching: client commands are appended to the leader's log as they arrive, and every `batchMs` each
+//   follower is sent everything past what it has been sent so far, up to `batchMax` entries per message.
+// - Pipelining: up to `pipeline` AppendEntries may be in flight per follower. nextIndex moves on as a batch is
+//   sent, not when it is acked, and falls back to what the follower reports after a rejection or timeout.
+// - Lease reads: the leader answers reads locally while a majority has acked AppendEntries sent within the
+//   last `leaseMs`, which is shorter than the election timeout. Followers don't vote, or pre-vote, while they
+//   have heard from a leader within the election timeout, so no other leader can exist during the lease.
+// - Elections start with a pre-vote, so a node cut off by a partition doesn't inflate its term and depose a
+//   healthy leader when it comes back.
+// Followers forward client requests to the leader they know of. The log is never compacted.
+public class RaftHandler extends Node {
+
+    private enum Role { FOLLOWER, CANDIDATE, LEADER }
+
+    private static final ReplyTemplate WRITE_OK = ReplyTemplate.ofType("write_ok");
+    private static final ReplyTemplate CAS_OK = ReplyTemplate.ofType("cas_ok");
+    private static final byte[] NOOP = "[\"noop\"]".getBytes(StandardCharsets.UTF_8);
+
+    // What the leader knows about one follower.
+    private static final class Follower {
+        int next;
+        int match = 0;
+        int inFlight = 0;
+        long lastSentNanos = 0;
+        // Send time of the latest AppendEntries it acked, which the lease counts from.
+        long ackedSentNanos = 0;
+
+        Follower(int next) {
+            this.next = next;
+        }
+    }
+
+    private final long electionNanos;
+    private final long heartbeatNanos;
+    private final long leaseNanos;
+    private final long batchMs;
+    private final int batchMax;
+    private final int pipeline;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final RaftLog log = new RaftLog();
+    private final Map<String, JsonValue> data = new HashMap<>();
+
+    private Role role = Role.FOLLOWER;
+    private long term = 0;
+    private String votedFor = null;
+    private String leader = null;
+    private int commitIndex = 0;
+    private int lastApplied = 0;
+    private long lastHeardNanos;
+    private long electionDeadlineNanos;
+
+    // Leader only: followers, client requests waiting on their entry to commit, and where our term starts.
+    private final Map<String, Follower> followers = new HashMap<>();
+    private final Map<Integer, Message> pending = new HashMap<>();
+    private int termStart = Integer.MAX_VALUE;
+    private long leaderSinceNanos;
+
+    private final LongAdder leaseReads = metrics.counter("raft.lease_reads");
+    private final LongAdder logReads = metrics.counter("raft.log_reads");
+    private final LongAdder elections = metrics.counter("raft.elections");
+
+    public RaftHandler() {
+        this(Long.getLong("raft.election.ms", 300), Long.getLong("raft.heartbeat.ms", 50),
+                Long.getLong("raft.lease.ms", 250), Long.getLong("raft.batch.ms", 2),
+                Integer.getInteger("raft.batch.max", 256), Integer.getInteger("raft.pipeline", 4));
+    }
+
+    public RaftHandler(long electionMs, long heartbeatMs, long leaseMs, long batchMs, int batchMax, int pipeline) {
+        if (leaseMs >= electionMs) {
+            throw new IllegalArgumentException("the lease must be shorter than the election timeout");
+        }
+        this.electionNanos = TimeUnit.MILLISECONDS.toNanos(electionMs);
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMs);
+        this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMs);
+        this.batchMs = batchMs;
+        this.batchMax = batchMax;
+        this.pipeline = pipeline;
+
+        on("read", m -> handleClient(m, Json.array().add("r").add(m.body().get("key"))));
+        on("write", m -> handleClient(m, Json.array().add("w").add(m.body().get("key")).add(m.body().get("value"))));
+        on("cas", m -> handleClient(m, Json.array().add("cas").add(m.body().get("key"))
+                .add(m.body().get("from")).add(m.body().get("to"))));
+        on("append_entries", this::handleAppendEntries);
+        on("request_vote", this::handleRequestVote);
+        on("pre_vote", this::handlePreVote);
+
+        metrics.gauge("raft.term", () -> {
+            lock.lock();
+            try {
+                return term;
+            } finally {
+                lock.unlock();
+            }
+        });
+        metrics.gauge("raft.commit", () -> {
+            lock.lock();
+            try {
+                return commitIndex;
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    @RequiredArgsConstructor
+    class ReadResponse implements IJson {
+        private static final String TYPE = "read_ok";
+
+        private final JsonValue value;
+
+        @Override
+        public JsonValue toJson() {
+            JsonObject jsonObject = new JsonObject();
+            jsonObject.add("type", TYPE);
+            jsonObject.add("value", value);
+            return jsonObject;
+        }
+    }
+
+    @RequiredArgsConstructor
+    class VoteResponse implements IJson {
+        private final String type;
+        private final long term;
+        private final boolean granted;
+
+        @Override
+        public JsonValue toJson() {
+            JsonObject jsonObject = new JsonObject();
+            jsonObject.add("type", type);
+            jsonObject.add("term", term);
+            jsonObject.add("granted", granted);
+            return jsonObject;
+        }
+    }
+
+    @Override
+    protected void handleInit(Message message) {
+        super.handleInit(message);
+        lock.lock();
+        try {
+            lastHeardNanos = clock.nanoTime();
+            resetElectionDeadline();
+        } finally {
+            lock.unlock();
+        }
+        schedulePeriodic(this::tick, batchMs);
+    }
+
+    private int majority() {
+        return nodeIds.size() / 2 + 1;
+    }
+
+    private void resetElectionDeadline() {
+        electionDeadlineNanos = clock.nanoTime() + electionNanos
+                + random().nextLong(electionNanos);
+    }
+
+    // Whether a leader has been in touch recently enough that we must not help anyone replace it.
+    private boolean leaderIsAlive(long now) {
+        return role == Role.LEADER || (leader != null && now - lastHeardNanos < electionNanos);
+    }
+
+    private boolean upToDate(long lastTerm, long lastIndex) {
+        return lastTerm > log.lastTerm() || (lastTerm == log.lastTerm() && lastIndex >= log.lastIndex());
+    }
+
+    private void tick() {
+        lock.lock();
+        try {
+            final long now = clock.nanoTime();
+            if (role == Role.LEADER) {
+                if (nodeIds.size() > 1 && now - Math.max(leaderSinceNanos, majorityAckedNanos()) > 2 * electionNanos) {
+                    // Cut off from a majority: a new leader is probably running already.
+                    Logger.info("Lost touch with a majority in term {}, stepping down", term);
+                    becomeFollower(term);
+                    return;
+                }
+                replicate(now);
+            } else if (now > electionDeadlineNanos) {
+                preVote();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Client requests /////////////////////////////////////////////////////////
+
+    private void handleClient(Message message, JsonArray command) {
+        final String target;
+        lock.lock();
+        try {
+            if (role == Role.LEADER) {
+                if (command.get(0).asString().equals("r") && leaseValid(clock.nanoTime())) {
+                    leaseReads.increment();
+                    execute(command, message);
+                    return;
+                }
+                if (command.get(0).asString().equals("r")) {
+                    logReads.increment();
+                }
+                final int index = log.append(term, command.toString().getBytes(StandardCharsets.UTF_8));
+                pending.put(index, message);
+                if (nodeIds.size() == 1) {
+                    advanceCommit();
+                }
+                return;
+            }
+            if (leader == null || nodeIds.contains(message.src)) {
+                // Nothing was appended, so the client can safely retry elsewhere. Common during elections
+                // and partitions, so answered directly rather than thrown and logged.
+                reply(message, Error.temporarilyUnavailable("not the leader, leader is " + leader));
+                return;
+            }
+            target = leader;
+        } finally {
+            lock.unlock();
+        }
+        rpc(target, message.body(), TimeUnit.NANOSECONDS.toMillis(electionNanos)).whenComplete((body, e) -> {
+            if (e != null) {
+                reply(message, (Error) e);
+            } else {
+                final JsonObject relayed = new JsonObject().merge(body);
+                relayed.remove("msg_id");
+                relayed.remove("in_reply_to");
+                reply(message, relayed);
+            }
+        });
+    }
+
+    // Apply a command to the state machine, answering `client` if one is waiting on it.
+    private void execute(JsonArray command, Message client) {
+        final String op = command.get(0).asString();
+        if (op.equals("noop")) {
+            return;
+        }
+        final String key = command.get(1).toString();
+        final JsonValue current = data.get(key);
+        switch (op) {
+            case "r" -> {
+                if (client != null) {
+                    reply(client, current == null ? Error.keyDoesNotExist("no key " + key) : new ReadResponse(current));
+                }
+            }
+            case "w" -> {
+                data.put(key, command.get(2));
+                if (client != null) {
+                    reply(client, WRITE_OK);
+                }
+            }
+            case "cas" -> {
+                if (current == null || !current.equals(command.get(2))) {
+                    if (client != null) {
+                        reply(client, current == null ? Error.keyDoesNotExist("no key " + key)
+                                : Error.preconditionFailed("expected " + command.get(2) + " but had " + current));
+                    }
+                    return;
+                }
+                data.put(key, command.get(3));
+                if (client != null) {
+                    reply(client, CAS_OK);
+                }
+            }
+            default -> throw new IllegalStateException("unknown command " + command);
+        }
+    }
+
+    private void applyCommitted() {
+        while (lastApplied < commitIndex) {
+            lastApplied++;
+            execute(Json.parse(log.command(lastApplied)).asArray(), pending.remove(lastApplied));
+        }
+    }
+
+    // Leader //////////////////////////////////////////////////////////////////
+
+    private void becomeLeader() {
+        Logger.info("Leader for term {}", term);
+        role = Role.LEADER;
+        leader = nodeId;
+        leaderSinceNanos = clock.nanoTime();
+        followers.clear();
+        for (String peer : nodeIds) {
+            if (!peer.equals(nodeId)) {
+                followers.put(peer, new Follower(log.lastIndex() + 1));
+            }
+        }
+        // Entries from earlier terms only commit alongside one of ours, and lease reads wait for it.
+        termStart = log.append(term, NOOP);
+        if (nodeIds.size() == 1) {
+            advanceCommit();
+        }
+        replicate(clock.nanoTime());
+    }
+
+    // Send each follower with room in its pipeline what it hasn't been sent yet, or a heartbeat if due.
+    private void replicate(long now) {
+        followers.forEach((peer, f) -> {
+            if (f.inFlight >= pipeline) {
+                return;
+            }
+            if (f.next <= log.lastIndex() || now - f.lastSentNanos >= heartbeatNanos) {
+                sendAppendEntries(peer, f, now);
+            }
+        });
+    }
+
+    // {"type": "append_entries", "term": 3, "prev_index": 7, "prev_term": 2, "commit": 6, "entries": [[3, cmd], ...]}
+    private void sendAppendEntries(String peer, Follower f, long now) {
+        final int prev = f.next - 1;
+        final int to = Math.min(log.lastIndex(), prev + batchMax);
+        final StringBuilder members = new StringBuilder(128 + (to - prev) * 32);
+        members.append("\"type\":\"append_entries\",\"term\":").append(term)
+                .append(",\"prev_index\":").append(prev)
+                .append(",\"prev_term\":").append(log.term(prev))
+                .append(",\"commit\":").append(commitIndex)
+                .append(",\"entries\":[");
+        for (int i = prev + 1; i <= to; i++) {
+            if (i > prev + 1) {
+                members.append(',');
+            }
+            members.append('[').append(log.term(i)).append(',');
+            log.appendCommand(members, i);
+            members.append(']');
+        }
+        members.append(']');
+        f.next = to + 1;
+        f.inFlight++;
+        f.lastSentNanos = now;
+        final long sentTerm = term;
+        rpcSerialized(peer, members).whenComplete((body, e) -> onAppendEntriesReply(f, sentTerm, now, to, body, e));
+    }
+
+    private void onAppendEntriesReply(Follower f, long sentTerm, long sentNanos, int to,
+                                                   JsonObject body, Throwable e) {
+        lock.lock();
+        try {
+            f.inFlight--;
+            if (role != Role.LEADER || term != sentTerm) {
+                return;
+            }
+            if (e != null) {
+                // Lost or late: resend everything it hasn't confirmed.
+                f.next = Math.min(f.next, f.match + 1);
+                return;
+            }
+            final long replyTerm = body.getLong("term", 0);
+            if (replyTerm > term) {
+                becomeFollower(replyTerm);
+                return;
+            }
+            if (body.getBoolean("success", false)) {
+                f.match = Math.max(f.match, to);
+                f.next = Math.max(f.next, f.match + 1);
+                f.ackedSentNanos = Math.max(f.ackedSentNanos, sentNanos);
+                advanceCommit();
+            } else {
+                f.next = Math.max(f.match + 1, Math.min(f.next, body.getInt("conflict", f.match + 1)));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Commit the highest index a majority holds, if it's from our term.
+    private void advanceCommit() {
+        final int[] matches = new int[nodeIds.size()];
+        int n = 0;
+        matches[n++] = log.lastIndex();
+        for (Follower f : followers.values()) {
+            matches[n++] = f.match;
+        }
+        Arrays.sort(matches);
+        final int index = matches[matches.length - majority()];
+        if (index > commitIndex && log.term(index) == term) {
+            commitIndex = index;
+            applyCommitted();
+        }
+    }
+
+    // The send time of the latest AppendEntries a majority, us included, has acked.
+    private long majorityAckedNanos() {
+        final long[] acked = new long[nodeIds.size()];
+        int n = 0;
+        acked[n++] = clock.nanoTime();
+        for (Follower f : followers.values()) {
+            acked[n++] = f.ackedSentNanos;
+        }
+        Arrays.sort(acked);
+        return acked[acked.length - majority()];
+    }
+
+    private boolean leaseValid(long now) {
+        return leaseNanos > 0 && commitIndex >= termStart && now - majorityAckedNanos() < leaseNanos;
+    }
+
+    // Followers and candidates ////////////////////////////////////////////////
+
+    private void becomeFollower(long newTerm) {
+        if (newTerm > term) {
+            term = newTerm;
+            votedFor = null;
+        }
+        if (role == Role.LEADER) {
+            // These may still commit under the next leader, so the outcome is unknown.
+            pending.forEach((index, client) -> reply(client, Error.timeout("lost leadership before index " + index + " committed")));
+            pending.clear();
+            followers.clear();
+            termStart = Integer.MAX_VALUE;
+            leader = null;
+        }
+        role = Role.FOLLOWER;
+    }
+
+    private void handleAppendEntries(Message message) {
+        lock.lock();
+        try {
+            final JsonObject body = message.body();
+            final long leaderTerm = body.getLong("term", 0);
+            final JsonObject response = new JsonObject().add("type", "append_entries_ok");
+            if (leaderTerm < term) {
+                reply(message, response.add("term", term).add("success", false));
+                return;
+            }
+            if (leaderTerm > term || role != Role.FOLLOWER) {
+                becomeFollower(leaderTerm);
+            }
+            leader = message.src;
+            lastHeardNanos = clock.nanoTime();
+            resetElectionDeadline();
+            response.add("term", term);
+
+            final int prev = body.getInt("prev_index", 0);
+            if (prev > log.lastIndex()) {
+                reply(message, response.add("success", false).add("conflict", log.lastIndex() + 1));
+                return;
+            }
+            if (log.term(prev) != body.getLong("prev_term", 0)) {
+                reply(message, response.add("success", false).add("conflict", log.firstIndexOfTerm(prev)));
+                return;
+            }
+            int index = prev;
+            for (JsonValue value : body.get("entries").asArray()) {
+                final JsonArray entry = value.asArray();
+                final long entryTerm = entry.get(0).asLong();
+                index++;
+                if (index <= log.lastIndex()) {
+                    if (log.term(index) == entryTerm) {
+                        continue;
+                    }
+                    log.truncateAfter(index - 1);
+                }
+                log.append(entryTerm, entry.get(1).toString().getBytes(StandardCharsets.UTF_8));
+            }
+            final int leaderCommit = body.getInt("commit", 0);
+            if (leaderCommit > commitIndex) {
+                commitIndex = Math.min(leaderCommit, index);
+                applyCommitted();
+            }
+            reply(message, response.add("success", true));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Ask whether we could win an election before bumping our term for one.
+    private void preVote() {
+        resetElectionDeadline();
+        final long proposed = term + 1;
+        final int[] granted = {1};
+        if (granted[0] >= majority()) {
+            startElection();
+            return;
+        }
+        final JsonObject request = Json.object().add("type", "pre_vote").add("term", proposed)
+                .add("last_index", log.lastIndex()).add("last_term", log.lastTerm());
+        for (String peer : nodeIds) {
+            if (peer.equals(nodeId)) {
+                continue;
+            }
+            rpc(peer, request, TimeUnit.NANOSECONDS.toMillis(electionNanos)).thenAccept(body -> {
+                lock.lock();
+                try {
+                    if (role == Role.LEADER || term + 1 != proposed || !body.getBoolean("granted", false)) {
+                        return;
+                    }
+                    if (++granted[0] == majority()) {
+                        startElection();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            });
+        }
+    }
+
+    private void startElection() {
+        term++;
+        role = Role.CANDIDATE;
+        votedFor = nodeId;
+        leader = null;
+        elections.increment();
+        resetElectionDeadline();
+        final long electionTerm = term;
+        final int[] votes = {1};
+        if (votes[0] >= majority()) {
+            becomeLeader();
+            return;
+        }
+        final JsonObject request = Json.object().add("type", "request_vote").add("term", term)
+                .add("last_index", log.lastIndex()).add("last_term", log.lastTerm());
+        for (String peer : nodeIds) {
+            if (peer.equals(nodeId)) {
+                continue;
+            }
+            rpc(peer, request, TimeUnit.NANOSECONDS.toMillis(electionNanos)).thenAccept(body -> {
+                lock.lock();
+                try {
+                    final long replyTerm = body.getLong("term", 0);
+                    if (replyTerm > term) {
+                        becomeFollower(replyTerm);
+                        return;
+                    }
+                    if (role != Role.CANDIDATE || term != electionTerm || !body.getBoolean("granted", false)) {
+                        return;
+                    }
+                    if (++votes[0] == majority()) {
+                        becomeLeader();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            });
+        }
+    }
+
+    private void handlePreVote(Message message) {
+        lock.lock();
+        try {
+            final JsonObject body = message.body();
+            final boolean granted = body.getLong("term", 0) > term
+                    && !leaderIsAlive(clock.nanoTime())
+                    && upToDate(body.getLong("last_term", 0), body.getLong("last_index", 0));
+            reply(message, new VoteResponse("pre_vote_ok", term, granted));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void handleRequestVote(Message message) {
+        lock.lock();
+        try {
+            final JsonObject body = message.body();
+            final long candidateTerm = body.getLong("term", 0);
+            if (leaderIsAlive(clock.nanoTime())) {
+                // Our leader's lease may still be running, ignore the candidate and keep our term.
+                reply(message, new VoteResponse("request_vote_ok", term, false));
+                return;
+            }
+            if (candidateTerm > term) {
+                becomeFollower(candidateTerm);
+            }
+            boolean granted = false;
+            if (candidateTerm == term && (votedFor == null || votedFor.equals(message.src))
+                    && upToDate(body.getLong("last_term", 0), body.getLong("last_index", 0))) {
+                votedFor = message.src;
+                granted = true;
+                resetElectionDeadline();
+            }
+            reply(message, new VoteResponse("request_vote_ok", term, granted));
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.the123saurav.linkv;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// The Raft log, held in primitive arrays: a long[] of terms, an int[] of start positions and one byte[]
+// holding every entry's command, which is its JSON text. Entry i spans data[starts[i], starts[i + 1]).
+// Indexes start at 1; index 0 is a sentinel with term 0, so prevLogIndex = 0 needs no special case.
+// Not thread safe, RaftHandler only touches it under its lock.
+class RaftLog {
+    private long[] terms = new long[1024];
+    private int[] starts = new int[1024];
+    private byte[] data = new byte[1 << 16];
+    private int last = 0;
+
+    int lastIndex() {
+        return last;
+    }
+
+    long lastTerm() {
+        return terms[last];
+    }
+
+    long term(int index) {
+        return terms[index];
+    }
+
+    // Append an entry, returning its index.
+    int append(long term, byte[] command) {
+        final int index = last + 1;
+        if (index + 1 >= terms.length) {
+            terms = Arrays.copyOf(terms, terms.length * 2);
+            starts = Arrays.copyOf(starts, starts.length * 2);
+        }
+        final int start = starts[index];
+        if (start + command.length > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, start + command.length));
+        }
+        System.arraycopy(command, 0, data, start, command.length);
+        terms[index] = term;
+        starts[index + 1] = start + command.length;
+        last = index;
+        return index;
+    }
+
+    // Drop every entry after `index`.
+    void truncateAfter(int index) {
+        last = Math.min(last, index);
+    }
+
+    // The first index holding `term`, searching back from `index`. Lets a follower tell the leader where
+    // a conflicting term starts so it can skip the whole term in one round trip.
+    int firstIndexOfTerm(int index) {
+        final long term = terms[index];
+        while (index > 1 && terms[index - 1] == term) {
+            index--;
+        }
+        return index;
+    }
+
+    String command(int index) {
+        return new String(data, starts[index], starts[index + 1] - starts[index], StandardCharsets.UTF_8);
+    }
+
+    // Append an entry's command to sb. Commands are JSON text and nearly always ASCII.
+    void appendCommand(StringBuilder sb, int index) {
+        final int from = starts[index];
+        final int to = starts[index + 1];
+        for (int i = from; i < to; i++) {
+            if (data[i] < 0) {
+                sb.append(new String(data, from, to - from, StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        for (int i = from; i < to; i++) {
+            sb.append((char) data[i]);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.the123saurav.linkv;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class RaftLogTest {
+    @Test
+    public void startsWithTheSentinel() {
+        final RaftLog log = new RaftLog();
+        assertEquals(0, log.lastIndex());
+        assertEquals(0, log.lastTerm());
+        assertEquals(0, log.term(0));
+        assertEquals(0, log.firstIndexOfTerm(0));
+    }
+
+    @Test
+    public void readsBackWhatWasAppended() {
+        final RaftLog log = new RaftLog();
+        assertEquals(1, log.append(1, bytes("{\"k\":1}")));
+        assertEquals(2, log.append(1, bytes("")));
+        assertEquals(3, log.append(2, bytes("{\"k\":\"☃\"}")));
+        assertEquals(3, log.lastIndex());
+        assertEquals(2, log.lastTerm());
+
+        assertEquals("{\"k\":1}", log.command(1));
+        assertEquals("", log.command(2));
+        assertEquals("{\"k\":\"☃\"}", log.command(3));
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= 3; i++) {
+            log.appendCommand(sb, i);
+        }
+        assertEquals("{\"k\":1}{\"k\":\"☃\"}", sb.toString());
+    }
+
+    @Test
+    public void growsPastItsInitialArrays() {
+        final RaftLog log = new RaftLog();
+        // Past 1024 entries and 64KB of commands, then one command bigger than the doubled data array.
+        for (int i = 1; i <= 5000; i++) {
+            assertEquals(i, log.append(i / 100, bytes(command(i))));
+        }
+        final String big = "x".repeat(1 << 20);
+        assertEquals(5001, log.append(50, bytes(big)));
+        assertEquals(5002, log.append(50, bytes(command(5002))));
+
+        for (int i = 1; i <= 5000; i++) {
+            assertEquals(i / 100, log.term(i));
+            assertEquals(command(i), log.command(i));
+        }
+        assertEquals(big, log.command(5001));
+        assertEquals(command(5002), log.command(5002));
+        // The first 99 entries are in term 0, the same as the sentinel, which is never reported.
+        assertEquals(1, log.firstIndexOfTerm(99));
+        assertEquals(4900, log.firstIndexOfTerm(4999));
+    }
+
+    @Test
+    public void overwritesConflictingEntriesAfterTruncating() {
+        final RaftLog log = new RaftLog();
+        for (int i = 1; i <= 5; i++) {
+            log.append(1, bytes("old " + i));
+        }
+        // A leader in term 2 disagrees from index 3 on.
+        log.truncateAfter(2);
+        assertEquals(2, log.lastIndex());
+        assertEquals(3, log.append(2, bytes("new 3 is longer")));
+        assertEquals(4, log.append(2, bytes("4")));
+        assertEquals(4, log.lastIndex());
+        assertEquals(2, log.lastTerm());
+
+        assertEquals("old 1", log.command(1));
+        assertEquals("old 2", log.command(2));
+        assertEquals("new 3 is longer", log.command(3));
+        assertEquals("4", log.command(4));
+        assertEquals(1, log.term(2));
+        assertEquals(2, log.term(3));
+
+        // Truncating past the end never brings entries back.
+        log.truncateAfter(10);
+        assertEquals(4, log.lastIndex());
+        log.truncateAfter(0);
+        assertEquals(0, log.lastIndex());
+        assertEquals(0, log.lastTerm());
+    }
+
+    @Test
+    public void findsWhereATermStarts() {
+        final RaftLog log = new RaftLog();
+        // Terms by index: 1:1 2:1 3:1 4:2 5:4 6:4 7:5
+        for (long term : new long[]{1, 1, 1, 2, 4, 4, 5}) {
+            log.append(term, bytes("c"));
+        }
+        assertEquals(1, log.firstIndexOfTerm(1));
+        assertEquals(1, log.firstIndexOfTerm(3));
+        assertEquals(4, log.firstIndexOfTerm(4));
+        assertEquals(5, log.firstIndexOfTerm(5));
+        assertEquals(5, log.firstIndexOfTerm(6));
+        assertEquals(7, log.firstIndexOfTerm(7));
+
+        // After an overwrite the search only sees the new terms.
+        log.truncateAfter(5);
+        log.append(5, bytes("c"));
+        assertEquals(6, log.firstIndexOfTerm(6));
+    }
+
+    private static String command(int i) {
+        return "{\"type\":\"write\",\"key\":" + i + ",\"value\":" + i * 31 + "}";
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,98 @@
+package com.the123saurav.simulator;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.the123saurav.common.Logger;
+import com.the123saurav.common.Message;
+import com.the123saurav.gossip.GossipHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Runs the broadcast workload against an in-process cluster and prints msgs-per-op, op latency and
+// how long the cluster took to converge once the last broadcast was acked. Handler settings are read
+// from the same gossip.* properties as the gossip Main, the workload and network from sim.*:
+//   sim.nodes (25), sim.ops (1000), sim.rate ops per second (100), sim.seed (1),
+//   sim.latency distribution (exponential:5, see Latency.parse), sim.loss fraction (0),
+//   sim.partition.ms how long half the cluster is cut off from the start (0).
+public class GossipSimulation {
+    public static void main(String[] args) {
+        final int nodes = Integer.getInteger("sim.nodes", 25);
+        final int ops = Integer.getInteger("sim.ops", 1000);
+        final int rate = Integer.getInteger("sim.rate", 100);
+        final long seed = Long.getLong("sim.seed", 1);
+        final long partitionMs = Long.getLong("sim.partition.ms", 0);
+
+        final Simulator sim = new Simulator(nodes, GossipHandler::new, seed)
+                .latency(Latency.parse(System.getProperty("sim.latency", "exponential:5")))
+                .loss(Double.parseDouble(System.getProperty("sim.loss", "0")));
+        final List<String> ids = sim.nodeIds();
+        if (partitionMs > 0) {
+            final long now = sim.elapsedMs();
+            sim.partition(now, now + partitionMs, ids.subList(0, nodes / 2));
+        }
+
+        final List<CompletableFuture<Message>> topology = new ArrayList<>();
+        final JsonObject grid = grid(ids);
+        for (String id : ids) {
+            topology.add(sim.request(id, Json.object().add("type", "topology").add("topology", grid)));
+        }
+        sim.await(CompletableFuture.allOf(topology.toArray(new CompletableFuture<?>[0])), 10_000);
+
+        final Random random = new Random(seed);
+        final List<CompletableFuture<Message>> broadcasts = new ArrayList<>();
+        final long intervalNanos = 1_000_000_000L / rate;
+        for (int i = 0; i < ops; i++) {
+            if (i > 0) {
+                sim.run(intervalNanos, TimeUnit.NANOSECONDS);
+            }
+            final String to = ids.get(random.nextInt(nodes));
+            broadcasts.add(sim.op(to, Json.object().add("type", "broadcast").add("message", i)));
+        }
+        sim.await(CompletableFuture.allOf(broadcasts.toArray(new CompletableFuture<?>[0])), 60_000);
+
+        final long convergenceMs = sim.awaitConvergence(() -> allHold(sim, ids, ops), 10, 60_000);
+        Logger.flush();
+        System.out.println(sim.report());
+        System.out.println(convergenceMs < 0 ? "did not converge" : "converged " + convergenceMs + "ms after the last ack");
+        System.exit(0);
+    }
+
+    // Maelstrom's default topology: nodes laid out row by row in a square grid, linked to their
+    // horizontal and vertical neighbours.
+    static JsonObject grid(List<String> ids) {
+        final int side = (int) Math.ceil(Math.sqrt(ids.size()));
+        final JsonObject topology = new JsonObject();
+        for (int i = 0; i < ids.size(); i++) {
+            final JsonArray neighbours = new JsonArray();
+            for (int j : new int[]{i - side, i + side, i - 1, i + 1}) {
+                final boolean sameRow = j / side == i / side;
+                if (j >= 0 && j < ids.size() && (Math.abs(j - i) == side || sameRow)) {
+                    neighbours.add(ids.get(j));
+                }
+            }
+            topology.add(ids.get(i), neighbours);
+        }
+        return topology;
+    }
+
+    // Whether every node reads all the values.
+    private static CompletableFuture<Boolean> allHold(Simulator sim, List<String> ids, int ops) {
+        final List<CompletableFuture<Message>> reads = new ArrayList<>();
+        for (String id : ids) {
+            reads.add(sim.request(id, Json.object().add("type", "read")));
+        }
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            for (CompletableFuture<Message> read : reads) {
+                if (read.join().body().get("messages").asArray().size() < ops) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+}
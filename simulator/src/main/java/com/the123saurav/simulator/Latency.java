@@ -0,0 +1,43 @@
+package com.the123saurav.simulator;
+
+import java.util.Random;
+
+// A one-way network delay distribution for the Simulator, sampled in microseconds.
+public interface Latency {
+    long sampleMicros(Random random);
+
+    static Latency constant(double ms) {
+        final long us = (long) (ms * 1000);
+        return random -> us;
+    }
+
+    static Latency uniform(double minMs, double maxMs) {
+        final long min = (long) (minMs * 1000);
+        final long span = Math.max(1, (long) (maxMs * 1000) - min);
+        return random -> min + (long) (random.nextDouble() * span);
+    }
+
+    // Memoryless delays around a mean, the shape maelstrom uses for its latency.
+    static Latency exponential(double meanMs) {
+        final double mean = meanMs * 1000;
+        return random -> (long) (-mean * Math.log(1 - random.nextDouble()));
+    }
+
+    // A fixed floor plus a long tail, closer to what real networks look like.
+    static Latency logNormal(double medianMs, double sigma) {
+        final double mu = Math.log(medianMs * 1000);
+        return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+    }
+
+    // Parse "constant:5", "uniform:1:10", "exponential:5" or "lognormal:5:0.5".
+    static Latency parse(String spec) {
+        final String[] parts = spec.split(":");
+        return switch (parts[0]) {
+            case "constant" -> constant(Double.parseDouble(parts[1]));
+            case "uniform" -> uniform(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+            case "exponential" -> exponential(Double.parseDouble(parts[1]));
+            case "lognormal" -> logNormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+            default -> throw new IllegalArgumentException("unknown latency distribution: " + spec);
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package com.the123saurav.simulator;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.the123saurav.common.Logger;
+import com.the123saurav.common.Message;
+import com.the123saurav.linkv.RaftHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Runs a lin-kv workload of reads and cas against an in-process cluster, optionally under a partition
+// nemesis, and prints msgs-per-op, op latency and a count of replies per outcome.
+// Every cas moves a key from the value last read to a value never used before, so two successful cas
+// from the same value mean an update was lost; those are counted too. Key k starts out holding k.
+// Handler settings are read from the same raft.* properties as the lin-kv Main, the workload and
+// network from sim.*:
+//   sim.nodes (5), sim.ops (5000), sim.rate ops per second (1000), sim.seed (1), sim.keys (10),
+//   sim.latency distribution (exponential:2, see Latency.parse), sim.loss fraction (0),
+//   sim.partition.ms: if set, the cluster alternates between whole and split in two at random for this long.
+public class LinKvSimulation {
+    public static void main(String[] args) {
+        final int nodes = Integer.getInteger("sim.nodes", 5);
+        final int ops = Integer.getInteger("sim.ops", 5000);
+        final int rate = Integer.getInteger("sim.rate", 1000);
+        final long seed = Long.getLong("sim.seed", 1);
+        final int keys = Integer.getInteger("sim.keys", 10);
+        final long partitionMs = Long.getLong("sim.partition.ms", 0);
+
+        final Simulator sim = new Simulator(nodes, RaftHandler::new, seed)
+                .latency(Latency.parse(System.getProperty("sim.latency", "exponential:2")))
+                .loss(Double.parseDouble(System.getProperty("sim.loss", "0")));
+        final List<String> ids = sim.nodeIds();
+        final Random random = new Random(seed);
+        if (partitionMs > 0) {
+            final long start = sim.elapsedMs() + 1000;
+            final long end = start + 1000L * ops / rate;
+            for (long at = start; at < end; at += 2 * partitionMs) {
+                final List<String> side = new ArrayList<>(ids);
+                Collections.shuffle(side, random);
+                sim.partition(at, at + partitionMs, side.subList(0, random.nextInt(1, nodes)));
+            }
+        }
+        // Give the cluster a leader before the clock starts, then start key k at value k.
+        sim.run(1, TimeUnit.SECONDS);
+        final long[] lastRead = new long[keys];
+        for (int key = 0; key < keys; key++) {
+            lastRead[key] = key;
+            final JsonObject write = Json.object().add("type", "write").add("key", key).add("value", key);
+            while (!sim.await(sim.request(ids.get(0), write), 10_000).body().getString("type", "").equals("write_ok")) {
+                sim.run(100, TimeUnit.MILLISECONDS);
+            }
+        }
+        final Map<String, Long> outcomes = new TreeMap<>();
+        final Map<Long, Integer> casFrom = new HashMap<>();
+        final List<CompletableFuture<Message>> requests = new ArrayList<>();
+        final long intervalNanos = 1_000_000_000L / rate;
+        long nextValue = 1;
+        for (int i = 0; i < ops; i++) {
+            if (i > 0) {
+                sim.run(intervalNanos, TimeUnit.NANOSECONDS);
+            }
+            final int key = random.nextInt(keys);
+            final JsonObject body;
+            if (random.nextBoolean()) {
+                body = Json.object().add("type", "read").add("key", key);
+            } else {
+                body = Json.object().add("type", "cas").add("key", key)
+                        .add("from", lastRead[key]).add("to", nextValue++ * keys + key);
+            }
+            final String to = ids.get(random.nextInt(nodes));
+            requests.add(sim.op(to, body).whenComplete((reply, e) -> {
+                final JsonObject r = reply.body();
+                final String outcome = r.getString("type", "?").equals("error")
+                        ? "error " + r.getInt("code", -1) : r.getString("type", "?");
+                outcomes.merge(outcome, 1L, Long::sum);
+                if (outcome.equals("read_ok")) {
+                    lastRead[key] = r.getLong("value", 0);
+                } else if (outcome.equals("cas_ok")) {
+                    casFrom.merge(body.getLong("from", 0), 1, Integer::sum);
+                }
+            }));
+        }
+        sim.await(CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])), 60_000);
+        Logger.flush();
+
+        long lost = 0;
+        for (int count : casFrom.values()) {
+            lost += count - 1;
+        }
+        System.out.println(sim.report());
+        System.out.println("outcomes " + outcomes + ", lost updates " + lost);
+        System.exit(0);
+    }
+}
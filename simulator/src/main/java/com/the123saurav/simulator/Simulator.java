@@ -0,0 +1,306 @@
+package com.the123saurav.simulator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.the123saurav.common.Clock;
+import com.the123saurav.common.Logger;
+import com.the123saurav.common.Message;
+import com.the123saurav.common.Node;
+import com.the123saurav.common.TimerWheel;
+
+// Runs a cluster of nodes in one JVM, in place of maelstrom, on one thread and a virtual clock.
+// Every node's output is routed back through a simulated network: each line is parsed, delayed by a
+// sample from the latency distribution, and handed to the destination node. Messages between nodes may
+// also be dropped at random or cut by a scheduled partition; client traffic only sees latency, as in
+// maelstrom.
+// Deliveries, node timers and tasks nodes hand to execute() are all events on one queue, run one at a
+// time in order of their virtual due time, and nodes read that time through their Clock. Latencies,
+// losses and every node's random numbers come from the seed, so a run with the same seed and settings
+// plays out the same way however fast or loaded the machine is.
+// Virtual time only moves inside run(), await() and awaitConvergence(), on the caller's thread.
+//
+// Clients call op() for the operations being measured and request() for anything else, e.g.
+// polling for convergence. report() gives msgs-per-op and bytes-per-op over node-to-node traffic and
+// op latency percentiles, in virtual time.
+public class Simulator {
+    // Node timers tick at this resolution, the same as on a real node.
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // What nodes see as the wall clock when a run starts, so their timestamps look like real ones.
+    private static final long EPOCH_MS = 1_700_000_000_000L;
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final List<TimerWheel> timers = new ArrayList<>();
+    private final Random random;
+    private Latency latency = Latency.constant(0);
+    private double loss = 0;
+    private final List<Partition> partitions = new ArrayList<>();
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long nowNanos = 0;
+    private long sequence = 0;
+    private long nextClientMsgId = 0;
+    private final Map<Long, CompletableFuture<Message>> clientRequests = new HashMap<>();
+
+    private long nodeMessages = 0;
+    private long nodeBytes = 0;
+    private long dropped = 0;
+    private long ops = 0;
+    private final List<Long> opLatencyNanos = new ArrayList<>();
+
+    private final Clock clock = new Clock() {
+        @Override
+        public long nanoTime() {
+            return nowNanos;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return EPOCH_MS + nowNanos / 1_000_000;
+        }
+    };
+
+    // Nodes on `side` can't exchange messages with anyone else between fromMs and toMs after start.
+    private record Partition(long fromMs, long toMs, Set<String> side) {
+        boolean cuts(String a, String b, long nowMs) {
+            return nowMs >= fromMs && nowMs < toMs && side.contains(a) != side.contains(b);
+        }
+    }
+
+    // Something to run at a point in virtual time. Ties go in the order they were queued.
+    private record Event(long dueNanos, long seq, Runnable task) implements Comparable<Event> {
+        @Override
+        public int compareTo(Event o) {
+            final int c = Long.compare(dueNanos, o.dueNanos);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    public static final class Report {
+        public final long ops;
+        public final long nodeMessages;
+        public final long dropped;
+        public final double msgsPerOp;
+        public final double bytesPerOp;
+        public final double p50Ms;
+        public final double p99Ms;
+        public final double maxMs;
+
+        Report(long ops, long nodeMessages, long nodeBytes, long dropped, long[] latencyNanos) {
+            this.ops = ops;
+            this.nodeMessages = nodeMessages;
+            this.dropped = dropped;
+            this.msgsPerOp = ops == 0 ? 0 : (double) nodeMessages / ops;
+            this.bytesPerOp = ops == 0 ? 0 : (double) nodeBytes / ops;
+            Arrays.sort(latencyNanos);
+            this.p50Ms = percentile(latencyNanos, 0.50);
+            this.p99Ms = percentile(latencyNanos, 0.99);
+            this.maxMs = latencyNanos.length == 0 ? 0 : latencyNanos[latencyNanos.length - 1] / 1e6;
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e6;
+        }
+
+        public String toString() {
+            return String.format("ops=%d msgs=%d dropped=%d msgs-per-op=%.2f bytes-per-op=%.0f latency p50=%.2fms p99=%.2fms max=%.2fms",
+                    ops, nodeMessages, dropped, msgsPerOp, bytesPerOp, p50Ms, p99Ms, maxMs);
+        }
+    }
+
+    // Create `count` nodes named n0..n{count-1} and send each of them init.
+    public Simulator(int count, Supplier<? extends Node> factory, long seed) {
+        this.random = new Random(seed);
+        final JsonArray ids = new JsonArray();
+        for (int i = 0; i < count; i++) {
+            final String id = "n" + i;
+            final Node node = factory.get();
+            node.setOutput(line -> route(id, line));
+            timers.add(node.runOn(clock, new Random(random.nextLong()), this::execute));
+            nodes.put(id, node);
+            ids.add(id);
+        }
+
+        final List<CompletableFuture<Message>> inits = new ArrayList<>();
+        for (String id : nodes.keySet()) {
+            inits.add(request(id, Json.object().add("type", "init").add("node_id", id).add("node_ids", ids)));
+        }
+        await(CompletableFuture.allOf(inits.toArray(new CompletableFuture<?>[0])), 10_000);
+    }
+
+    public Simulator latency(Latency latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    // Drop this fraction of node-to-node messages.
+    public Simulator loss(double loss) {
+        this.loss = loss;
+        return this;
+    }
+
+    // Isolate `side` from the rest of the cluster between fromMs and toMs after the simulator started.
+    public Simulator partition(long fromMs, long toMs, Collection<String> side) {
+        partitions.add(new Partition(fromMs, toMs, new HashSet<>(side)));
+        return this;
+    }
+
+    public List<String> nodeIds() {
+        return new ArrayList<>(nodes.keySet());
+    }
+
+    // Virtual time since the simulator started.
+    public long elapsedMs() {
+        return nowNanos / 1_000_000;
+    }
+
+    // Send a request from a client and record how long the reply takes as an operation.
+    public CompletableFuture<Message> op(String nodeId, JsonObject body) {
+        final long sentNanos = nowNanos;
+        ops++;
+        return request(nodeId, body).whenComplete((reply, e) -> opLatencyNanos.add(nowNanos - sentNanos));
+    }
+
+    // Send a request from a client without counting it as an operation.
+    public CompletableFuture<Message> request(String nodeId, JsonObject body) {
+        final long msgId = nextClientMsgId++;
+        final CompletableFuture<Message> f = new CompletableFuture<>();
+        clientRequests.put(msgId, f);
+        final JsonObject withId = Json.object().merge(body).set("msg_id", msgId);
+        final Node node = nodes.get(nodeId);
+        // One client per node, c3 talks to n3.
+        send(new Message("c" + nodeId.substring(1), nodeId, withId), node::handleMessage);
+        return f;
+    }
+
+    // Let `duration` of virtual time pass, running everything that falls due.
+    public void run(long duration, TimeUnit unit) {
+        runUntil(nowNanos + unit.toNanos(duration), () -> false);
+    }
+
+    // Run until f completes and return its result, failing if that takes more than timeoutMs.
+    public <T> T await(CompletableFuture<T> f, long timeoutMs) {
+        runUntil(nowNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs), f::isDone);
+        if (!f.isDone()) {
+            throw new IllegalStateException("not done after " + timeoutMs + " ms of simulated time");
+        }
+        return f.join();
+    }
+
+    // Run `check` every pollMs until it completes with true, returning how long that took, or -1 after
+    // timeoutMs.
+    public long awaitConvergence(Supplier<CompletableFuture<Boolean>> check, long pollMs, long timeoutMs) {
+        final long start = nowNanos;
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (nowNanos < deadline) {
+            final CompletableFuture<Boolean> f = check.get();
+            runUntil(deadline, f::isDone);
+            if (f.isDone() && f.join()) {
+                return (nowNanos - start) / 1_000_000;
+            }
+            runUntil(Math.min(deadline, nowNanos + TimeUnit.MILLISECONDS.toNanos(pollMs)), () -> false);
+        }
+        return -1;
+    }
+
+    public Report report() {
+        final long[] latencies = opLatencyNanos.stream().mapToLong(Long::longValue).toArray();
+        return new Report(ops, nodeMessages, nodeBytes, dropped, latencies);
+    }
+
+    // Run events in order, ticking node timers every TICK_NANOS in between, until `done` holds or the
+    // next thing due is after untilNanos, in which case the clock is left at untilNanos.
+    private void runUntil(long untilNanos, BooleanSupplier done) {
+        while (!done.getAsBoolean()) {
+            final long nextTick = (nowNanos / TICK_NANOS + 1) * TICK_NANOS;
+            final Event next = events.peek();
+            if (next != null && next.dueNanos < nextTick) {
+                if (next.dueNanos > untilNanos) {
+                    nowNanos = Math.max(nowNanos, untilNanos);
+                    return;
+                }
+                events.poll();
+                nowNanos = Math.max(nowNanos, next.dueNanos);
+                try {
+                    next.task.run();
+                } catch (Throwable e) {
+                    Logger.error("Simulator event failed: {}", e);
+                }
+            } else {
+                if (nextTick > untilNanos) {
+                    nowNanos = Math.max(nowNanos, untilNanos);
+                    return;
+                }
+                nowNanos = nextTick;
+                for (TimerWheel timer : timers) {
+                    timer.advance();
+                }
+            }
+        }
+    }
+
+    // Where nodes' timers and execute() calls put their tasks: on the queue, to run as soon as the
+    // current event is done.
+    private void execute(Runnable task) {
+        events.add(new Event(nowNanos, sequence++, task));
+    }
+
+    // Called with every line a node writes.
+    private void route(String from, CharSequence line) {
+        final byte[] raw = line.toString().getBytes(StandardCharsets.UTF_8);
+        final Message message = new Message(raw);
+        final Node to = nodes.get(message.dest);
+        if (to == null) {
+            // A reply to one of our clients.
+            final CompletableFuture<Message> f = clientRequests.remove(message.inReplyTo());
+            if (f != null) {
+                send(message, f::complete);
+            }
+            return;
+        }
+        nodeMessages++;
+        nodeBytes += raw.length;
+        if (isLost(from, message.dest)) {
+            dropped++;
+            return;
+        }
+        send(message, to::handleMessage);
+    }
+
+    private boolean isLost(String from, String to) {
+        final long now = elapsedMs();
+        for (Partition p : partitions) {
+            if (p.cuts(from, to, now)) {
+                return true;
+            }
+        }
+        return loss > 0 && random.nextDouble() < loss;
+    }
+
+    // Deliver a message to `target` after a sample of network latency.
+    private void send(Message message, Consumer<Message> target) {
+        final long dueNanos = nowNanos + latency.sampleMicros(random) * 1000;
+        events.add(new Event(dueNanos, sequence++, () -> target.accept(message)));
+    }
+}
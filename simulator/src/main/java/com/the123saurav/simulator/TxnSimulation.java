@@ -0,0 +1,93 @@
+package com.the123saurav.simulator;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.the123saurav.common.Logger;
+import com.the123saurav.common.Message;
+import com.the123saurav.txn.TxnHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Runs a mixed txn-rw-register workload against an in-process cluster and prints msgs-per-op, op
+// latency and how long the cluster took to agree on every key once the last transaction was acked.
+// Handler settings are read from the same txn.* properties as the txn Main, the workload and network
+// from sim.*:
+//   sim.nodes (5), sim.ops (2000), sim.rate ops per second (500), sim.seed (1), sim.keys (100),
+//   sim.txn.ops micro-operations per transaction (4), sim.read.fraction of them that are reads (0.5),
+//   sim.latency distribution (exponential:5, see Latency.parse), sim.loss fraction (0),
+//   sim.partition.ms how long half the cluster is cut off from the start (0).
+public class TxnSimulation {
+    public static void main(String[] args) {
+        final int nodes = Integer.getInteger("sim.nodes", 5);
+        final int ops = Integer.getInteger("sim.ops", 2000);
+        final int rate = Integer.getInteger("sim.rate", 500);
+        final long seed = Long.getLong("sim.seed", 1);
+        final int keys = Integer.getInteger("sim.keys", 100);
+        final int txnOps = Integer.getInteger("sim.txn.ops", 4);
+        final double readFraction = Double.parseDouble(System.getProperty("sim.read.fraction", "0.5"));
+        final long partitionMs = Long.getLong("sim.partition.ms", 0);
+
+        final Simulator sim = new Simulator(nodes, TxnHandler::new, seed)
+                .latency(Latency.parse(System.getProperty("sim.latency", "exponential:5")))
+                .loss(Double.parseDouble(System.getProperty("sim.loss", "0")));
+        final List<String> ids = sim.nodeIds();
+        if (partitionMs > 0) {
+            final long now = sim.elapsedMs();
+            sim.partition(now, now + partitionMs, ids.subList(0, nodes / 2));
+        }
+
+        final Random random = new Random(seed);
+        final List<CompletableFuture<Message>> txns = new ArrayList<>();
+        final long intervalNanos = 1_000_000_000L / rate;
+        int value = 0;
+        for (int i = 0; i < ops; i++) {
+            if (i > 0) {
+                sim.run(intervalNanos, TimeUnit.NANOSECONDS);
+            }
+            final JsonArray txn = new JsonArray();
+            for (int j = 0; j < txnOps; j++) {
+                final int key = random.nextInt(keys);
+                if (random.nextDouble() < readFraction) {
+                    txn.add(Json.array().add("r").add(key).add(Json.NULL));
+                } else {
+                    txn.add(Json.array().add("w").add(key).add(++value));
+                }
+            }
+            final String to = ids.get(random.nextInt(nodes));
+            txns.add(sim.op(to, Json.object().add("type", "txn").add("txn", txn)));
+        }
+        sim.await(CompletableFuture.allOf(txns.toArray(new CompletableFuture<?>[0])), 60_000);
+
+        final long convergenceMs = sim.awaitConvergence(() -> allAgree(sim, ids, keys), 10, 60_000);
+        Logger.flush();
+        System.out.println(sim.report());
+        System.out.println(convergenceMs < 0 ? "did not converge" : "converged " + convergenceMs + "ms after the last ack");
+        System.exit(0);
+    }
+
+    // Whether a read of every key gives the same answer on all nodes.
+    private static CompletableFuture<Boolean> allAgree(Simulator sim, List<String> ids, int keys) {
+        final List<CompletableFuture<Message>> reads = new ArrayList<>();
+        for (String id : ids) {
+            // Nodes fill reads in place, so each gets its own copy.
+            final JsonArray all = new JsonArray();
+            for (int key = 0; key < keys; key++) {
+                all.add(Json.array().add("r").add(key).add(Json.NULL));
+            }
+            reads.add(sim.request(id, Json.object().add("type", "txn").add("txn", all)));
+        }
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            final JsonArray first = reads.get(0).join().body().get("txn").asArray();
+            for (CompletableFuture<Message> read : reads) {
+                if (!read.join().body().get("txn").asArray().equals(first)) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+}
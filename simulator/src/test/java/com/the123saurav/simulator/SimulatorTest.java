@@ -0,0 +1,130 @@
+package com.the123saurav.simulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.the123saurav.common.Message;
+import com.the123saurav.gossip.GossipHandler;
+import com.the123saurav.linkv.RaftHandler;
+import org.junit.Test;
+
+public class SimulatorTest {
+    @Test
+    public void sameSeedPlaysOutTheSame() {
+        final String first = broadcast(7, 0.1);
+        assertEquals(first, broadcast(7, 0.1));
+        assertNotEquals(first, broadcast(8, 0.1));
+    }
+
+    @Test
+    public void timePassesOnlyWhenRun() {
+        final Simulator sim = new Simulator(3, GossipHandler::new, 1);
+        final long start = sim.elapsedMs();
+        assertEquals(start, sim.elapsedMs());
+        sim.run(250, TimeUnit.MILLISECONDS);
+        assertEquals(start + 250, sim.elapsedMs());
+    }
+
+    @Test
+    public void partitionedNodesCatchUpOnceItHeals() {
+        final Simulator sim = new Simulator(4, GossipHandler::new, 1).latency(Latency.constant(1));
+        final List<String> ids = sim.nodeIds();
+        final long now = sim.elapsedMs();
+        sim.partition(now, now + 500, ids.subList(0, 2));
+        sim.await(sim.op(ids.get(0), Json.object().add("type", "broadcast").add("message", 1)), 1000);
+
+        sim.run(100, TimeUnit.MILLISECONDS);
+        assertEquals(0, read(sim, ids.get(3)));
+        assertTrue(sim.report().dropped > 0);
+
+        sim.run(5, TimeUnit.SECONDS);
+        assertEquals(1, read(sim, ids.get(3)));
+    }
+
+    @Test
+    public void racingCasFromOneValueHasOneWinner() {
+        final Simulator sim = new Simulator(3, RaftHandler::new, 1).latency(Latency.exponential(2));
+        final List<String> ids = sim.nodeIds();
+        sim.run(1, TimeUnit.SECONDS);
+        while (!sim.await(sim.request(ids.get(0), Json.object().add("type", "write").add("key", 0).add("value", 0)), 10_000)
+                .body().getString("type", "").equals("write_ok")) {
+            sim.run(100, TimeUnit.MILLISECONDS);
+        }
+
+        final List<CompletableFuture<Message>> cas = new ArrayList<>();
+        for (int i = 1; i <= 9; i++) {
+            cas.add(sim.op(ids.get(i % ids.size()), Json.object().add("type", "cas").add("key", 0).add("from", 0).add("to", i)));
+        }
+        sim.await(CompletableFuture.allOf(cas.toArray(new CompletableFuture<?>[0])), 10_000);
+        long won = 0;
+        for (CompletableFuture<Message> f : cas) {
+            won += f.join().body().getString("type", "").equals("cas_ok") ? 1 : 0;
+        }
+        assertEquals(1, won);
+        final long value = sim.await(sim.request(ids.get(0), Json.object().add("type", "read").add("key", 0)), 10_000)
+                .body().getLong("value", -1);
+        assertTrue(value >= 1 && value <= 9);
+    }
+
+    @Test
+    public void parsesLatencySpecs() {
+        final Random random = new Random(1);
+        assertEquals(5000, Latency.parse("constant:5").sampleMicros(random));
+        for (int i = 0; i < 1000; i++) {
+            final long us = Latency.parse("uniform:1:10").sampleMicros(random);
+            assertTrue(us >= 1000 && us < 10_000);
+            assertTrue(Latency.parse("exponential:5").sampleMicros(random) >= 0);
+            assertTrue(Latency.parse("lognormal:5:0.5").sampleMicros(random) > 0);
+        }
+        try {
+            Latency.parse("gaussian:5");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    // Broadcast to a small lossy cluster until everyone has everything, and describe how that went.
+    private static String broadcast(long seed, double loss) {
+        final Simulator sim = new Simulator(5, GossipHandler::new, seed)
+                .latency(Latency.exponential(5))
+                .loss(loss);
+        final List<String> ids = sim.nodeIds();
+        final JsonObject grid = GossipSimulation.grid(ids);
+        for (String id : ids) {
+            sim.await(sim.request(id, Json.object().add("type", "topology").add("topology", grid)), 1000);
+        }
+        final Random random = new Random(seed);
+        final List<CompletableFuture<Message>> broadcasts = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            sim.run(5, TimeUnit.MILLISECONDS);
+            broadcasts.add(sim.op(ids.get(random.nextInt(ids.size())),
+                    Json.object().add("type", "broadcast").add("message", i)));
+        }
+        sim.await(CompletableFuture.allOf(broadcasts.toArray(new CompletableFuture<?>[0])), 10_000);
+        final long convergenceMs = sim.awaitConvergence(() -> {
+            final List<CompletableFuture<Message>> reads = new ArrayList<>();
+            for (String id : ids) {
+                reads.add(sim.request(id, Json.object().add("type", "read")));
+            }
+            return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(v -> reads.stream().allMatch(r -> r.join().body().get("messages").asArray().size() == 50));
+        }, 10, 10_000);
+        assertTrue(convergenceMs >= 0);
+        return sim.report() + " converged " + convergenceMs;
+    }
+
+    private static int read(Simulator sim, String id) {
+        return sim.await(sim.request(id, Json.object().add("type", "read")), 1000).body().get("messages").asArray().size();
+    }
+}
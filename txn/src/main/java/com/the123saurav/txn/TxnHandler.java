@@ -0,0 +1,208 @@
+package com.the123saurav.txn;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.the123saurav.common.IJson;
+import com.the123saurav.common.Logger;
+import com.the123saurav.common.Message;
+import com.the123saurav.common.Node;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Maelstrom's txn-rw-register workload: transactions of register reads and writes, totally available.
+// Transactions run locally against a VersionStore. Read-only ones are served from a snapshot without
+// taking any lock; ones with writes commit under the store's lock and are acked straight away.
+// Committed writes go into an outbound log, and every `replicateIntervalMs` each peer gets one
+// `replicate` RPC with the entries past what it last acked, at most one RPC in flight per peer. Peers
+// apply them with their original timestamps, so every node settles on the same last write per key.
+// Entries every peer has acked are dropped from the log, and every `pruneIntervalMs` versions no
+// snapshot can see any more are dropped from the store.
+public class TxnHandler extends Node {
+
+    private final VersionStore store = new VersionStore(hlc);
+
+    // Committed local transactions not yet acked by every peer, serialized as [ts, [[k, v], ...]].
+    // Entry i of `outbound` has log index `outboundBase + i`. Guarded by `outbound`.
+    private final List<String> outbound = new ArrayList<>();
+    private long outboundBase = 0;
+    // Peer -> the log index it needs next.
+    private final ConcurrentHashMap<String, Long> acked = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Boolean> inFlight = new ConcurrentHashMap<>();
+
+    private final long replicateIntervalMs;
+    private final long pruneIntervalMs;
+    private final int maxReplicate;
+    private int nodeIndex;
+
+    public TxnHandler() {
+        this(Long.getLong("txn.replicate.ms", 10), Long.getLong("txn.prune.ms", 100),
+                Integer.getInteger("txn.replicate.max", 1024));
+    }
+
+    public TxnHandler(long replicateIntervalMs, long pruneIntervalMs, int maxReplicate) {
+        this.replicateIntervalMs = replicateIntervalMs;
+        this.pruneIntervalMs = pruneIntervalMs;
+        this.maxReplicate = maxReplicate;
+
+        on("txn", this::handleTxn);
+        on("replicate", this::handleReplicate);
+
+        metrics.gauge("txn.versions", store::versions);
+        metrics.gauge("txn.pruned", store::pruned);
+        metrics.gauge("txn.outbound", () -> {
+            synchronized (outbound) {
+                return outbound.size();
+            }
+        });
+    }
+
+    @RequiredArgsConstructor
+    class TxnResponse implements IJson {
+        private static final String TYPE = "txn_ok";
+
+        private final JsonArray txn;
+
+        @Override
+        public JsonValue toJson() {
+            JsonObject jsonObject = new JsonObject();
+            jsonObject.add("type", TYPE);
+            jsonObject.add("txn", txn);
+            return jsonObject;
+        }
+    }
+
+    @RequiredArgsConstructor
+    class ReplicateResponse implements IJson {
+        private static final String TYPE = "replicate_ok";
+
+        private final long next;
+
+        @Override
+        public JsonValue toJson() {
+            JsonObject jsonObject = new JsonObject();
+            jsonObject.add("type", TYPE);
+            jsonObject.add("next", next);
+            return jsonObject;
+        }
+    }
+
+    @Override
+    protected void handleInit(Message message) {
+        super.handleInit(message);
+        nodeIndex = nodeIds.indexOf(nodeId);
+        for (String peer : nodeIds) {
+            if (!peer.equals(nodeId)) {
+                acked.put(peer, 0L);
+            }
+        }
+        if (!acked.isEmpty()) {
+            schedulePeriodic(this::replicate, replicateIntervalMs);
+        }
+        schedulePeriodic(store::prune, pruneIntervalMs);
+    }
+
+    private void handleTxn(Message message) {
+        final JsonArray txn = message.body().get("txn").asArray();
+        boolean writes = false;
+        for (JsonValue op : txn) {
+            writes |= "w".equals(op.asArray().get(0).asString());
+        }
+        if (!writes) {
+            store.read(txn);
+            reply(message, new TxnResponse(txn));
+            return;
+        }
+        final Map<Long, JsonValue> written = new LinkedHashMap<>();
+        final long ts = store.execute(txn, nodeIndex, written);
+        if (!acked.isEmpty()) {
+            final StringBuilder entry = new StringBuilder(32 + written.size() * 16);
+            entry.append('[').append(ts).append(",[");
+            written.forEach((key, value) -> {
+                if (entry.charAt(entry.length() - 1) != '[') {
+                    entry.append(',');
+                }
+                entry.append('[').append(key).append(',').append(value.toString()).append(']');
+            });
+            entry.append("]]");
+            synchronized (outbound) {
+                outbound.add(entry.toString());
+            }
+        }
+        reply(message, new TxnResponse(txn));
+    }
+
+    // Replication ////////////////////////////////////////////////////////////
+
+    // {"type": "replicate", "from": 12, "txns": [[ts, [[k, v], ...]], ...]}
+    private void replicate() {
+        acked.forEach((peer, from) -> {
+            if (inFlight.putIfAbsent(peer, Boolean.TRUE) != null) {
+                return;
+            }
+            final StringBuilder members = new StringBuilder(256);
+            synchronized (outbound) {
+                final int start = (int) (from - outboundBase);
+                final int end = Math.min(outbound.size(), start + maxReplicate);
+                if (start >= end) {
+                    inFlight.remove(peer);
+                    return;
+                }
+                members.append("\"type\":\"replicate\",\"from\":").append(from).append(",\"txns\":[");
+                for (int i = start; i < end; i++) {
+                    if (i > start) {
+                        members.append(',');
+                    }
+                    members.append(outbound.get(i));
+                }
+                members.append(']');
+            }
+            rpcSerialized(peer, members).whenComplete((body, e) -> {
+                inFlight.remove(peer);
+                if (e != null) {
+                    Logger.debug("Replicating to {} failed, resending next round: {}", peer, e);
+                    return;
+                }
+                acked.merge(peer, body.getLong("next", from), Math::max);
+                trim();
+            });
+        });
+    }
+
+    // Drop the log entries every peer has.
+    private void trim() {
+        long min = Long.MAX_VALUE;
+        for (long next : acked.values()) {
+            min = Math.min(min, next);
+        }
+        synchronized (outbound) {
+            final int drop = (int) Math.min(min - outboundBase, outbound.size());
+            if (drop > 0) {
+                outbound.subList(0, drop).clear();
+                outboundBase += drop;
+            }
+        }
+    }
+
+    // Applying a transaction twice is harmless, the store ignores writes it already holds. Peers only
+    // send transactions they committed themselves, so the sender is the writing node.
+    private void handleReplicate(Message message) {
+        final JsonObject body = message.body();
+        final int node = nodeIds.indexOf(message.src);
+        final JsonArray txns = body.get("txns").asArray();
+        for (JsonValue value : txns) {
+            final JsonArray txn = value.asArray();
+            final Map<Long, JsonValue> writes = new LinkedHashMap<>();
+            for (JsonValue write : txn.get(1).asArray()) {
+                writes.put(write.asArray().get(0).asLong(), write.asArray().get(1));
+            }
+            store.apply(txn.get(0).asLong(), node, writes);
+        }
+        reply(message, new ReplicateResponse(body.getLong("from", 0) + txns.size()));
+    }
+}
@@ -0,0 +1,222 @@
+package com.the123saurav.txn;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonValue;
+import com.the123saurav.common.HybridLogicalClock;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// A multi-version register store.
+// Every key holds a chain of versions, newest write first. A version carries two stamps:
+// - writeTs orders writes to a key, last writer wins. It is the writing node's hybrid logical clock at
+//   commit, with the node's index breaking ties, so every node ends up with the same order no matter when
+//   a write reaches it. A write that follows another causally, or by more than the nodes' clock skew in
+//   real time, is ordered after it; a Lamport counter would only get the first right.
+// - commitSeq is the local commit that installed it. `visible` is the last finished commit, and a
+//   snapshot at s sees, per key, the newest write among versions with commitSeq <= s.
+// Commits, local or replicated, are serialized by the store's lock and only publish their versions by
+// moving `visible` once all are linked in, so snapshots never see half a transaction. Read-only
+// transactions pin a snapshot and walk the chains without taking any lock.
+// prune() cuts every chain after the newest version the oldest pinned snapshot can see; nothing older
+// can be read again.
+class VersionStore {
+    private static final class Version {
+        final long writeTs;
+        final int node;
+        final long commitSeq;
+        final JsonValue value;
+        volatile Version next;
+
+        Version(long writeTs, int node, long commitSeq, JsonValue value, Version next) {
+            this.writeTs = writeTs;
+            this.node = node;
+            this.commitSeq = commitSeq;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    private static final class Chain {
+        volatile Version head;
+    }
+
+    private final ConcurrentHashMap<Long, Chain> chains = new ConcurrentHashMap<>();
+    // Keys written since the last prune.
+    private final ConcurrentHashMap.KeySetView<Long, Boolean> dirty = ConcurrentHashMap.newKeySet();
+    // Snapshots in use by readers and how many hold each.
+    private final ConcurrentSkipListMap<Long, Integer> pinned = new ConcurrentSkipListMap<>();
+    private final LongAdder versions = new LongAdder();
+    private final LongAdder pruned = new LongAdder();
+
+    private volatile long visible = 0;
+    // Snapshots below this may have lost versions to prune() and must not be pinned.
+    private volatile long horizon = 0;
+    // The node's clock. Read under the lock, so local commits get increasing stamps in commit order.
+    private final HybridLogicalClock clock;
+
+    VersionStore(HybridLogicalClock clock) {
+        this.clock = clock;
+    }
+
+    long versions() {
+        return versions.sum();
+    }
+
+    long pruned() {
+        return pruned.sum();
+    }
+
+    // Serve a transaction with no writes from a snapshot, filling in its reads.
+    void read(JsonArray ops) {
+        final long snapshot = pin();
+        try {
+            for (JsonValue op : ops) {
+                op.asArray().set(2, get(op.asArray().get(1).asLong(), snapshot));
+            }
+        } finally {
+            unpin(snapshot);
+        }
+    }
+
+    // Run a transaction with writes as one commit, filling in its reads. Returns its write timestamp and
+    // leaves the last value written to each key in `writes`.
+    synchronized long execute(JsonArray ops, int node, Map<Long, JsonValue> writes) {
+        final long seq = visible + 1;
+        final long ts = clock.now();
+        for (JsonValue value : ops) {
+            final JsonArray op = value.asArray();
+            final long key = op.get(1).asLong();
+            if ("r".equals(op.get(0).asString())) {
+                // Our own writes are linked in with commitSeq seq already, so this sees them.
+                op.set(2, get(key, seq));
+            } else {
+                install(key, ts, node, seq, op.get(2));
+                writes.put(key, op.get(2));
+            }
+        }
+        visible = seq;
+        return ts;
+    }
+
+    // Apply a transaction replicated from the node it was committed on. The replicate message's envelope
+    // stamp has already moved our clock past ts.
+    synchronized void apply(long ts, int node, Map<Long, JsonValue> writes) {
+        final long seq = visible + 1;
+        writes.forEach((key, value) -> install(key, ts, node, seq, value));
+        visible = seq;
+    }
+
+    // Link a version into its key's chain in (writeTs, node) order. A write we already hold is ignored.
+    private void install(long key, long ts, int node, long seq, JsonValue value) {
+        final Chain chain = chains.computeIfAbsent(key, k -> new Chain());
+        final Version head = chain.head;
+        final int c = head == null ? 1 : compare(ts, node, head);
+        if (c > 0) {
+            chain.head = new Version(ts, node, seq, value, head);
+        } else if (c == 0) {
+            if (head.commitSeq != seq) {
+                return;
+            }
+            // Written again by the same transaction: only its last write is ever visible.
+            chain.head = new Version(ts, node, seq, value, head.next);
+            return;
+        } else {
+            Version prev = head;
+            while (prev.next != null && compare(ts, node, prev.next) < 0) {
+                prev = prev.next;
+            }
+            if (prev.next != null && compare(ts, node, prev.next) == 0) {
+                return;
+            }
+            prev.next = new Version(ts, node, seq, value, prev.next);
+        }
+        versions.increment();
+        dirty.add(key);
+    }
+
+    private static int compare(long ts, int node, Version v) {
+        final int c = Long.compare(ts, v.writeTs);
+        return c != 0 ? c : Integer.compare(node, v.node);
+    }
+
+    // The value of key as of snapshot.
+    JsonValue get(long key, long snapshot) {
+        final Chain chain = chains.get(key);
+        for (Version v = chain == null ? null : chain.head; v != null; v = v.next) {
+            if (v.commitSeq <= snapshot) {
+                return v.value;
+            }
+        }
+        return Json.NULL;
+    }
+
+    // GC //////////////////////////////////////////////////////////////////////
+
+    // Hold a snapshot so prune() keeps what it can see, until unpinned. Returns the snapshot.
+    long pin() {
+        while (true) {
+            final long snapshot = visible;
+            pinned.merge(snapshot, 1, Integer::sum);
+            if (snapshot >= horizon) {
+                return snapshot;
+            }
+            // prune() moved past this snapshot before we pinned it, take a newer one.
+            unpin(snapshot);
+        }
+    }
+
+    void unpin(long snapshot) {
+        pinned.computeIfPresent(snapshot, (s, n) -> n == 1 ? null : n - 1);
+    }
+
+    private long oldestPinned() {
+        final Map.Entry<Long, Integer> oldest = pinned.firstEntry();
+        return oldest == null ? Long.MAX_VALUE : oldest.getKey();
+    }
+
+    // Drop versions no snapshot can see any more from the keys written since the last call.
+    void prune() {
+        long keep = Math.min(visible, oldestPinned());
+        horizon = keep;
+        // A reader may have pinned an older snapshot between our first look and publishing the horizon;
+        // it has either seen the new horizon and backed off, or shows up here.
+        keep = Math.min(keep, oldestPinned());
+
+        final List<Long> again = new ArrayList<>();
+        final Iterator<Long> keys = dirty.iterator();
+        while (keys.hasNext()) {
+            final Long key = keys.next();
+            keys.remove();
+            final Chain chain = chains.get(key);
+            synchronized (this) {
+                Version v = chain.head;
+                while (v != null && v.commitSeq > keep) {
+                    v = v.next;
+                }
+                if (v == null) {
+                    // Still holds versions only newer snapshots see, look again next time.
+                    again.add(key);
+                    continue;
+                }
+                int dropped = 0;
+                for (Version old = v.next; old != null; old = old.next) {
+                    dropped++;
+                }
+                v.next = null;
+                versions.add(-dropped);
+                pruned.add(dropped);
+                if (v != chain.head) {
+                    again.add(key);
+                }
+            }
+        }
+        dirty.addAll(again);
+    }
+}
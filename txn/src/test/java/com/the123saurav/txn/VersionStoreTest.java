@@ -0,0 +1,171 @@
+package com.the123saurav.txn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonValue;
+import com.the123saurav.common.HybridLogicalClock;
+import org.junit.Test;
+
+public class VersionStoreTest {
+    private final AtomicLong wall = new AtomicLong(1_700_000_000_000L);
+    private final VersionStore store = new VersionStore(new HybridLogicalClock(wall::get, 500));
+
+    @Test
+    public void replicatedWritesAreOrderedByTimestampThenNode() {
+        apply(20, 1, 0, "a");
+        // Older by timestamp, so it loses even though it arrived later.
+        apply(10, 2, 0, "b");
+        assertEquals(Json.value("a"), latest(0));
+        // Same timestamp, lower node.
+        apply(20, 0, 0, "c");
+        assertEquals(Json.value("a"), latest(0));
+        apply(20, 2, 0, "d");
+        assertEquals(Json.value("d"), latest(0));
+
+        // A write we already hold is ignored.
+        final long versions = store.versions();
+        apply(20, 1, 0, "a again");
+        assertEquals(versions, store.versions());
+    }
+
+    @Test
+    public void everyArrivalOrderEndsInTheSameState() {
+        final List<long[]> writes = new ArrayList<>();
+        final Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            // [ts, node, key]; timestamps repeat so ties between nodes come up.
+            writes.add(new long[]{random.nextInt(20), random.nextInt(3), random.nextInt(5)});
+        }
+        final Map<Long, JsonValue> expected = finalState(writes);
+        for (int run = 0; run < 10; run++) {
+            Collections.shuffle(writes, random);
+            assertEquals(expected, finalState(writes));
+        }
+    }
+
+    @Test
+    public void snapshotsOnlySeeFinishedCommits() {
+        execute(txn("w", 1, 10), txn("w", 2, 20));
+        final long before = store.pin();
+        execute(txn("w", 1, 11), txn("w", 2, 21));
+
+        assertEquals(Json.value(10), store.get(1, before));
+        assertEquals(Json.value(20), store.get(2, before));
+        final JsonArray read = new JsonArray().add(txn("r", 1, null)).add(txn("r", 2, null));
+        store.read(read);
+        assertEquals("[[\"r\",1,11],[\"r\",2,21]]", read.toString());
+        store.unpin(before);
+    }
+
+    @Test
+    public void aTransactionReadsItsOwnWritesAndKeepsOnlyItsLast() {
+        final JsonArray ops = new JsonArray()
+                .add(txn("w", 1, 1))
+                .add(txn("r", 1, null))
+                .add(txn("w", 1, 2))
+                .add(txn("r", 1, null));
+        final Map<Long, JsonValue> writes = new HashMap<>();
+        store.execute(ops, 0, writes);
+        assertEquals("[[\"w\",1,1],[\"r\",1,1],[\"w\",1,2],[\"r\",1,2]]", ops.toString());
+        assertEquals(Map.of(1L, Json.value(2)), writes);
+        assertEquals(1, store.versions());
+    }
+
+    @Test
+    public void localCommitsGetIncreasingTimestamps() {
+        final long first = execute(txn("w", 1, 1));
+        final long second = execute(txn("w", 1, 2));
+        wall.addAndGet(-1000);
+        final long third = execute(txn("w", 1, 3));
+        assertTrue(first < second && second < third);
+    }
+
+    @Test
+    public void pruneKeepsWhatPinnedReadersCanSee() {
+        execute(txn("w", 1, 1));
+        final long reader = store.pin();
+        execute(txn("w", 1, 2));
+        execute(txn("w", 1, 3));
+
+        store.prune();
+        assertEquals(3, store.versions());
+        assertEquals(Json.value(1), store.get(1, reader));
+
+        store.unpin(reader);
+        store.prune();
+        assertEquals(1, store.versions());
+        assertEquals(2, store.pruned());
+        assertEquals(Json.value(3), latest(1));
+    }
+
+    @Test
+    public void pruneCutsBehindAnOlderReplicatedWrite() {
+        // The replicated write lands behind the head: it is older by timestamp but committed later.
+        execute(txn("w", 1, "local"));
+        final long reader = store.pin();
+        apply(1, 5, 1, "replicated");
+
+        store.prune();
+        assertEquals(Json.value("local"), store.get(1, reader));
+        store.unpin(reader);
+        store.prune();
+        assertEquals(1, store.versions());
+        assertEquals(Json.value("local"), latest(1));
+    }
+
+    private void apply(long ts, int node, long key, String value) {
+        store.apply(ts, node, Map.of(key, Json.value(value)));
+    }
+
+    private long execute(JsonArray... ops) {
+        final JsonArray txn = new JsonArray();
+        for (JsonArray op : ops) {
+            txn.add(op);
+        }
+        return store.execute(txn, 0, new HashMap<>());
+    }
+
+    private JsonValue latest(long key) {
+        final long snapshot = store.pin();
+        try {
+            return store.get(key, snapshot);
+        } finally {
+            store.unpin(snapshot);
+        }
+    }
+
+    private static JsonArray txn(String f, long key, Object value) {
+        final JsonArray op = Json.array().add(f).add(key);
+        if (value == null) {
+            return op.add(Json.NULL);
+        }
+        return value instanceof String s ? op.add(s) : op.add(((Number) value).longValue());
+    }
+
+    // Apply writes in the given order to a fresh store and read back every key they touched. Each
+    // write's value names the write, so equal states mean the same write won every key.
+    private static Map<Long, JsonValue> finalState(List<long[]> writes) {
+        final VersionStore s = new VersionStore(new HybridLogicalClock());
+        final Map<Long, JsonValue> state = new HashMap<>();
+        for (long[] w : writes) {
+            s.apply(w[0], (int) w[1], Map.of(w[2], Json.value(w[0] + "/" + w[1])));
+        }
+        final long snapshot = s.pin();
+        for (long[] w : writes) {
+            state.put(w[2], s.get(w[2], snapshot));
+        }
+        s.unpin(snapshot);
+        return state;
+    }
+}